@@ -0,0 +1,69 @@
+/*
+ * ArticleTableBenchmark.java
+ *
+ * Filling an ArticleTable with the whole corpus, looking titles up, and
+ * iterating it both with the table's own cursor and with iterator().
+ */
+
+package minisearch.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import minisearch.Article;
+import minisearch.ArticleTable;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArticleTableBenchmark {
+
+    private Article[] A;
+    private String[] titles;
+    private ArticleTable T;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        A = Corpus.load();
+        titles = new String[A.length];
+        for(int i = 0; i < A.length; i++)
+            titles[i] = A[i].getTitle();
+        T = new ArticleTable();
+        T.initialize(A);
+    }
+
+    @Benchmark
+    public ArticleTable insertAll() {
+        ArticleTable t = new ArticleTable();
+        t.initialize(A);
+        return t;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Article lookup() {
+        String title = titles[next];
+        next = (next + 1) % titles.length;
+        return T.lookup(title);
+    }
+
+    @Benchmark
+    public void iterateCursor(Blackhole bh) {
+        T.reset();
+        while(T.hasNext())
+            bh.consume(T.next());
+    }
+
+    @Benchmark
+    public void iterate(Blackhole bh) {
+        for(Article a : T)
+            bh.consume(a);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Corpus.java
+ *
+ * Locates the article database for the benchmarks. Uses the directory
+ * named by the minisearch.articles system property, or articles/ in the
+ * working directory (or its parent, when run from inside benchmarks/).
+ * If no directory is found, the bundled articles.zip is extracted into a
+ * temporary directory once per JVM.
+ */
+
+package minisearch.bench;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.zip.*;
+
+import minisearch.Article;
+import minisearch.DatabaseIterator;
+
+final class Corpus {
+
+    private static String path;
+
+    private Corpus() { }
+
+    // returns the path of a directory holding the article files
+    static synchronized String directory() throws IOException {
+        if(path != null)
+            return path;
+
+        String p = System.getProperty("minisearch.articles");
+        if(p != null) {
+            path = p;
+            return path;
+        }
+
+        for(String base : new String[] { ".", ".." }) {
+            File dir = new File(base, "articles");
+            if(dir.isDirectory()) {
+                path = dir.getPath();
+                return path;
+            }
+        }
+
+        for(String base : new String[] { ".", ".." }) {
+            File zip = new File(base, "articles.zip");
+            if(zip.isFile()) {
+                path = extract(zip);
+                return path;
+            }
+        }
+
+        throw new FileNotFoundException("no articles/ directory or articles.zip found; " +
+                                        "set -Dminisearch.articles=<dir>");
+    }
+
+    // reads every article in the database into an array
+    static Article[] load() throws IOException {
+        DatabaseIterator db = new DatabaseIterator(directory());
+        Article[] A = new Article[db.getNumArticles()];
+        for(int i = 0; i < A.length; i++)
+            A[i] = db.next();
+        return A;
+    }
+
+    private static String extract(File zip) throws IOException {
+        Path tmp = Files.createTempDirectory("minisearch-bench");
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(zip))) {
+            ZipEntry e;
+            while((e = in.getNextEntry()) != null) {
+                Path out = tmp.resolve(e.getName()).normalize();
+                if(!out.startsWith(tmp))
+                    throw new IOException("bad zip entry " + e.getName());
+                if(e.isDirectory())
+                    Files.createDirectories(out);
+                else {
+                    Files.createDirectories(out.getParent());
+                    Files.copy(in, out);
+                }
+            }
+        }
+        return tmp.resolve("articles").toString();
+    }
+}
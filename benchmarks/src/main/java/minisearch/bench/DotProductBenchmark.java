@@ -0,0 +1,61 @@
+/*
+ * DotProductBenchmark.java
+ *
+ * Dot products of n-dimensional float and int8 vectors with the scalar
+ * loop and with the kernel VectorKernel selects (SimdKernel, since the
+ * benchmark JVM is started with the Vector API module).
+ */
+
+package minisearch.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import minisearch.VectorKernel;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+public class DotProductBenchmark {
+
+    @Param({ "128", "512" })
+    public int n;
+
+    @Param({ "scalar", "selected" })
+    public String kernel;
+
+    private VectorKernel k;
+    private float[] a, b;
+    private byte[] x, y;
+
+    @Setup
+    public void setup() {
+        k = kernel.equals("scalar") ? new VectorKernel.Scalar() : VectorKernel.get();
+        Random r = new Random(42);
+        a = new float[n];
+        b = new float[n];
+        for(int i = 0; i < n; i++) {
+            a[i] = (float) r.nextGaussian();
+            b[i] = (float) r.nextGaussian();
+        }
+        x = new byte[n];
+        y = new byte[n];
+        r.nextBytes(x);
+        r.nextBytes(y);
+    }
+
+    @Benchmark
+    public float dotFloat() {
+        return k.dot(a, b);
+    }
+
+    @Benchmark
+    public int dotInt8() {
+        return k.dot(x, y);
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * IngestBenchmark.java
+ *
+ * Time to read the article files from disk with DatabaseIterator.
+ */
+
+package minisearch.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import minisearch.Article;
+import minisearch.DatabaseIterator;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IngestBenchmark {
+
+    private String dir;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Corpus.directory();
+    }
+
+    @Benchmark
+    public Article[] loadAll() {
+        DatabaseIterator db = new DatabaseIterator(dir);
+        Article[] A = new Article[db.getNumArticles()];
+        for(int i = 0; i < A.length; i++)
+            A[i] = db.next();
+        return A;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * MaxHeapBenchmark.java
+ *
+ * Inserting n scored articles into a MaxHeap and taking the top three,
+ * as a search does, or draining the whole heap.
+ */
+
+package minisearch.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import minisearch.Article;
+import minisearch.MaxHeap;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MaxHeapBenchmark {
+
+    @Param({ "100", "2500" })
+    public int n;
+
+    private double[] scores;
+    private Article[] articles;
+
+    @Setup
+    public void setup() {
+        Random r = new Random(42);
+        scores = new double[n];
+        articles = new Article[n];
+        for(int i = 0; i < n; i++) {
+            scores[i] = r.nextDouble();
+            articles[i] = new Article("article " + i, "");
+        }
+    }
+
+    private MaxHeap fill() {
+        MaxHeap h = new MaxHeap();
+        for(int i = 0; i < n; i++)
+            h.insert(scores[i], articles[i]);
+        return h;
+    }
+
+    @Benchmark
+    public void insertTop3(Blackhole bh) {
+        MaxHeap h = fill();
+        for(int i = 0; i < 3 && !h.isEmpty(); i++)
+            bh.consume(h.getMax());
+    }
+
+    @Benchmark
+    public void insertDrain(Blackhole bh) {
+        MaxHeap h = fill();
+        while(!h.isEmpty())
+            bh.consume(h.getMax());
+    }
+}
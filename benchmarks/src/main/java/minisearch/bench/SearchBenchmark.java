@@ -0,0 +1,43 @@
+/*
+ * SearchBenchmark.java
+ *
+ * End-to-end search over the bundled corpus: scoring every article against
+ * the phrase and taking the top three hits.
+ */
+
+package minisearch.bench;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import minisearch.ArticleTable;
+import minisearch.SearchEngine;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class SearchBenchmark {
+
+    @Param({ "zoroastrianism", "singapore malaysia", "the history of the roman empire" })
+    public String phrase;
+
+    private SearchEngine E;
+
+    @Setup
+    public void setup() throws IOException {
+        ArticleTable T = new ArticleTable();
+        T.initialize(Corpus.load());
+        E = new SearchEngine(T);
+    }
+
+    @Benchmark
+    public List<SearchEngine.Hit> search() {
+        return E.search(phrase, 3);
+    }
+}
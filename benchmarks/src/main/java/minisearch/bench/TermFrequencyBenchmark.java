@@ -0,0 +1,70 @@
+/*
+ * TermFrequencyBenchmark.java
+ *
+ * Tokenizing two strings into a TermFrequencyTable and computing their
+ * cosine similarity, both for a short phrase against an article body (the
+ * per-article cost of a search) and for two article bodies.
+ */
+
+package minisearch.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import minisearch.Article;
+import minisearch.TermFrequencyTable;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TermFrequencyBenchmark {
+
+    @Param({ "computer programming language" })
+    public String phrase;
+
+    private String body1;
+    private String body2;
+
+    @Setup
+    public void setup() throws IOException {
+        Article[] A = Corpus.load();
+        // pick the two longest bodies so the numbers are not dominated by stubs
+        int first = 0, second = 1;
+        for(int i = 0; i < A.length; i++) {
+            int len = A[i].getBody().length();
+            if(len > A[first].getBody().length()) {
+                second = first;
+                first = i;
+            } else if(i != first && len > A[second].getBody().length())
+                second = i;
+        }
+        body1 = A[first].getBody();
+        body2 = A[second].getBody();
+    }
+
+    @Benchmark
+    public TermFrequencyTable initializePhraseBody() {
+        TermFrequencyTable T = new TermFrequencyTable();
+        T.initialize(phrase, body1);
+        return T;
+    }
+
+    @Benchmark
+    public double cosinePhraseBody() {
+        TermFrequencyTable T = new TermFrequencyTable();
+        T.initialize(phrase, body1);
+        return T.cosineSimilarity();
+    }
+
+    @Benchmark
+    public double cosineBodyBody() {
+        TermFrequencyTable T = new TermFrequencyTable();
+        T.initialize(body1, body2);
+        return T.cosineSimilarity();
+    }
+}
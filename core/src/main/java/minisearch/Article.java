@@ -0,0 +1,114 @@
+/*
+ * Article.java
+ * A simple blueprint class representing an article from the
+ * Simple English Wikipedia. An article has a title and a body.
+ * Once an ArticleTable holds the article, their text lives in the
+ * table's ArticleStore and is decoded each time it is asked for, so
+ * an Article itself is only a few bytes.
+ */
+
+package minisearch;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+public class Article implements Comparable<Article> {
+
+    private static final AtomicReferenceFieldUpdater<Article, Object> TEXT =
+        AtomicReferenceFieldUpdater.newUpdater(Article.class, Object.class, "text");
+
+    // a Text until a table's ArticleStore adopts the article, then an ArticleStore.Slot
+    private volatile Object text;
+
+    public Article(String t, String b) {
+        text = new Text(t, b);
+    }
+
+    public String getTitle() {
+        Object t = text;
+        return t instanceof Text ? ((Text) t).title : ((ArticleStore.Slot) t).title();
+    }
+
+    public String getBody() {
+        Object t = text;
+        return t instanceof Text ? ((Text) t).body : ((ArticleStore.Slot) t).body();
+    }
+
+    // getTitle().equals(t), usually without decoding the title
+    public boolean hasTitle(String t) {
+        Object x = text;
+        return x instanceof Text ? ((Text) x).title.equals(t) : ((ArticleStore.Slot) x).titleEquals(t);
+    }
+
+    Object text() {
+        return text;
+    }
+
+    // replace the text representation from with to; false if it is no longer from
+    boolean moveText(Object from, Object to) {
+        return TEXT.compareAndSet(this, from, to);
+    }
+
+
+
+    public String toString() {
+        String t = getTitle();
+        String s = t +  "\n";
+
+        for (int i = 0; i < t.length(); i++)
+            s += "=";
+
+        s += "\n";
+        s += wrapString(getBody());
+
+        return s;
+    }
+
+
+    public int compareTo(Article other) {
+        return this.getTitle().compareTo(other.getTitle());
+    }
+
+    /*
+     * Given a string, return a new string with newlines in the
+     * appropriate places to keep lines less than 80 characters
+     * long. This method will convert single existing newlines
+     * to double newlines, to simulate a paragraph break.
+     */
+    private String wrapString(String s) {
+        String out = "";
+        String[] lines = s.split("\r\n?|\n");
+
+        int cols = 0;
+        for (int i = 0; i < lines.length; i++) {
+            String[] words = lines[i].split(" ");
+
+            for (int j = 0; j < words.length; j++) {
+                if (cols + words[j].length() >= 80) {
+                    cols = words[j].length() + 1;
+                    out += "\n" + words[j] + " ";
+                } else {
+                    cols += words[j].length() + 1;
+                    out += words[j] + " ";
+                }
+            }
+
+            cols = 0;
+            out += "\n\n";
+        }
+
+        return out;
+    }
+
+
+    // the text of an article no table has stored yet
+    static final class Text {
+        final String title;
+        final String body;
+
+        Text(String title, String body) {
+            this.title = title;
+            this.body = body;
+        }
+    }
+}
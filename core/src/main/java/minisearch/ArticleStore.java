@@ -0,0 +1,255 @@
+/*
+ * ArticleStore.java
+ *
+ * Holds the text of the articles in one ArticleTable compactly. Titles and
+ * bodies are encoded to bytes and appended to large byte arrays (chunks of
+ * CHUNK bytes), and each article points to its bytes with a small Slot:
+ * the chunk, where its bytes start and how long its title and body are.
+ * The strings are decoded again each time they are asked for.
+ *
+ * A new Article holds its strings until a table takes it (adopt()); only
+ * then is its text encoded here, so articles that are refused, or never
+ * inserted, cost the store nothing. An article inserted again after its
+ * removal takes back its old bytes, or has them copied here if they were
+ * compacted away or belong to another table's store. When the table removes an article
+ * (release()) its bytes are counted as dead, and once dead bytes outweigh
+ * live ones the live articles are copied to fresh chunks (compact()) and
+ * the old chunks are left to the garbage collector. An article removed
+ * from the table keeps its old Slot, and with it its text, for as long as
+ * something still refers to it.
+ *
+ * Text whose characters all fit in one byte (Latin-1, which covers almost
+ * all of Simple English Wikipedia) is stored one byte per character;
+ * anything else is stored as UTF-8.
+ *
+ * Changes are synchronized; reading needs no lock, because a chunk's bytes
+ * are never changed once a Slot points at them, and slots are published
+ * through the article's volatile text field.
+ */
+
+package minisearch;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class ArticleStore {
+
+    private static final int CHUNK = 1 << 16;           // bytes per chunk, larger records get their own
+    private static final int COMPACT_MIN = 4 * CHUNK;   // dead bytes worth compacting for
+
+    // the chunks slots may be added to or released from; all but the last
+    // are full (up to CHUNK bytes, or one larger record)
+    private final List<byte[]> chunks = new ArrayList<byte[]>();
+    private final Set<byte[]> current = Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>());
+    private int fill = CHUNK;                            // bytes used in the last chunk (full: start a new one)
+
+    private int count;                                   // articles stored
+    private long live;                                   // their bytes
+    private long dead;                                   // bytes of released articles, until compacted
+    private int compactions;
+
+    // store a's text. An article coming back after its removal keeps its
+    // slot if it is still in one of this store's chunks (its bytes count as
+    // live again); otherwise its bytes are copied here
+    public synchronized void adopt(Article a) {
+        Object t = a.text();
+        Slot s;
+        if(t instanceof Article.Text)
+            s = add(((Article.Text) t).title, ((Article.Text) t).body);
+        else {
+            Slot old = (Slot) t;
+            if(current.contains(old.chunk)) {            // released here, and not yet compacted away
+                count++;
+                live += old.size();
+                dead -= old.size();
+                return;
+            }
+            s = add(old.chunk, old.offset, old.size(), old.titleLength, old.bodyLength);
+        }
+        if(!a.moveText(t, s))                            // another store took it first
+            discard(s);
+        else {
+            count++;
+            live += s.size();
+        }
+    }
+
+    // count a's bytes as dead, if they are stored here
+    public synchronized void release(Article a) {
+        Object t = a.text();
+        if(t instanceof Slot && current.contains(((Slot) t).chunk)) {
+            count--;
+            live -= ((Slot) t).size();
+            dead += ((Slot) t).size();
+        }
+    }
+
+    // true once dead bytes outweigh live ones by enough to be worth a compact()
+    public synchronized boolean wantsCompaction() {
+        return dead >= COMPACT_MIN && dead > live;
+    }
+
+    // copy the text of the articles of T stored here into fresh chunks, and
+    // drop the old ones
+    public synchronized void compact(ArticleTable T) {
+        Set<byte[]> stale = Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>());
+        stale.addAll(current);
+        chunks.clear();
+        current.clear();
+        fill = CHUNK;
+        count = 0;
+        live = dead = 0;
+        for(Article a : T.snapshot()) {
+            Object t = a.text();
+            if(!(t instanceof Slot) || !stale.contains(((Slot) t).chunk))
+                continue;                                // not yet adopted, or stored elsewhere
+            Slot s = (Slot) t;
+            Slot moved = add(s.chunk, s.offset, s.size(), s.titleLength, s.bodyLength);
+            a.moveText(t, moved);
+            count++;
+            live += moved.size();
+        }
+        compactions++;
+    }
+
+    // number of articles stored
+    public synchronized int size() {
+        return count;
+    }
+
+    // bytes of text of the articles stored
+    public synchronized long textBytes() {
+        return live;
+    }
+
+    // bytes of text of released articles, held until the next compaction
+    public synchronized long deadBytes() {
+        return dead;
+    }
+
+    // bytes held by the chunks
+    public synchronized long allocatedBytes() {
+        long total = 0;
+        for(byte[] c : chunks)
+            total += c.length;
+        return total;
+    }
+
+    // add the chunks and slots to r
+    synchronized void footprint(MemoryReport r) {
+        long chunkBytes = 0;
+        for(byte[] c : chunks)
+            chunkBytes += MemoryReport.array(c.length, 1);
+        r.add("ArticleStore", "text chunks", chunks.size(), chunkBytes + MemoryReport.refArray(chunks.size()) +
+              MemoryReport.mapTable(chunks.size()) + MemoryReport.mapEntries(chunks.size()));
+        r.add("ArticleStore", "slots", count, count * MemoryReport.object(1, 12));
+        r.note("ArticleStore", String.format("%d articles stored, %s of text (%s dead) in %s of chunks; " +
+                                             "%d compactions", count, MemoryReport.human(live),
+                                             MemoryReport.human(dead), MemoryReport.human(chunkBytes),
+                                             compactions));
+    }
+
+    /*
+     * Helper Methods
+     */
+
+    private Slot add(String title, String body) {
+        boolean latin1 = isLatin1(title) && isLatin1(body);
+        byte[] t = title.getBytes(latin1 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+        byte[] b = body.getBytes(latin1 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+        byte[] record = new byte[t.length + b.length];
+        System.arraycopy(t, 0, record, 0, t.length);
+        System.arraycopy(b, 0, record, t.length, b.length);
+        return add(record, 0, record.length, latin1 ? t.length : -t.length, b.length);
+    }
+
+    // a slot for a copy of the n bytes of from at offset
+    private Slot add(byte[] from, int offset, int n, int titleLength, int bodyLength) {
+        byte[] chunk;
+        int at;
+        if(n > CHUNK) {                                  // a chunk of its own
+            chunk = newChunk(n);
+            at = 0;
+            fill = CHUNK;
+        } else {
+            if(fill + n > CHUNK) {
+                newChunk(CHUNK);
+                fill = 0;
+            }
+            chunk = chunks.get(chunks.size() - 1);
+            at = fill;
+            fill += n;
+        }
+        System.arraycopy(from, offset, chunk, at, n);
+        return new Slot(chunk, at, titleLength, bodyLength);
+    }
+
+    // forget a slot that was never handed out (it may only be the last one added)
+    private void discard(Slot s) {
+        if(s.chunk == chunks.get(chunks.size() - 1) && s.offset + s.size() == fill && fill != CHUNK)
+            fill = s.offset;
+        else
+            dead += s.size();
+    }
+
+    private byte[] newChunk(int size) {
+        byte[] c = new byte[size];
+        chunks.add(c);
+        current.add(c);
+        return c;
+    }
+
+    private static boolean isLatin1(String s) {
+        for(int i = 0; i < s.length(); i++) {
+            if(s.charAt(i) > 0xff)
+                return false;
+        }
+        return true;
+    }
+
+    private static String decode(byte[] chunk, int offset, int length, boolean latin1) {
+        return new String(chunk, offset, length, latin1 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+    }
+
+
+    // where one article's text is: its title's bytes, then its body's, from
+    // offset in chunk. A negative title length means the record is UTF-8
+    static final class Slot {
+        final byte[] chunk;
+        final int offset;
+        final int titleLength;
+        final int bodyLength;
+
+        Slot(byte[] chunk, int offset, int titleLength, int bodyLength) {
+            this.chunk = chunk;
+            this.offset = offset;
+            this.titleLength = titleLength;
+            this.bodyLength = bodyLength;
+        }
+
+        int size() {
+            return Math.abs(titleLength) + bodyLength;
+        }
+
+        String title() {
+            return decode(chunk, offset, Math.abs(titleLength), titleLength >= 0);
+        }
+
+        String body() {
+            return decode(chunk, offset + Math.abs(titleLength), bodyLength, titleLength >= 0);
+        }
+
+        // title().equals(s), without decoding a Latin-1 title
+        boolean titleEquals(String s) {
+            if(titleLength < 0)
+                return title().equals(s);
+            if(titleLength != s.length())
+                return false;
+            for(int i = 0; i < titleLength; i++) {
+                if((chunk[offset + i] & 0xff) != s.charAt(i))
+                    return false;
+            }
+            return true;
+        }
+    }
+}
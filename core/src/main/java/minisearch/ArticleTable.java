@@ -0,0 +1,495 @@
+/* 
+ * ArticleTable.java 
+ * This is a class for storing Articles in a hash table implemented 
+ * using separate chaining.
+ *
+ * The table is safe to use from many threads. The buckets are split into
+ * segments, and the chains are never modified in place: insert and delete
+ * copy the affected chain, its segment and the (short) array of segments,
+ * then publish the result as a new Snapshot with a single compare-and-set.
+ * Readers just take the current Snapshot, so lookups and scans never block
+ * and never see a half-finished change, however many writers are active.
+ *
+ * The text of the articles in the table is kept in its ArticleStore: an
+ * article's text moves there once it is inserted, and is counted as dead
+ * (and eventually compacted away) once it is deleted.
+ */
+
+package minisearch;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+    
+public class ArticleTable implements Iterable<Article> {
+    
+    private static final int M = 2521;                   // size of table - initially set to large prime close to 2500
+    private static final int SEGMENT = 158;              // buckets per segment, so 16 segments cover the table
+    private static final int SEGMENTS = (M + SEGMENT - 1) / SEGMENT;
+    
+    private final AtomicReference<Snapshot> root =      // hash table, replaced as a whole on every change
+        new AtomicReference<Snapshot>(new Snapshot(new Node[SEGMENTS][SEGMENT], 0));
+    private final ArticleStore store = new ArticleStore();
+    
+    private Iterator<Article> cursor;   // for iterator: position within the snapshot taken by reset
+    private int counter;                // keep track of how many Nodes iterator has traversed
+    
+    public void initialize(Article[] A) {
+        for(int i = 0; i < A.length; ++i) 
+            insert(A[i]); 
+    }
+    
+    // returns the current contents of the table; later changes do not affect it
+    public Snapshot snapshot() {
+        return root.get();
+    }
+
+    // where the text of the articles in the table is kept
+    public ArticleStore getStore() {
+        return store;
+    }
+    
+    // insert article into hash table using title as hash key
+    // assumed that duplicate entries are not allowed: returns false if the title is present
+    public boolean insert(Article a) {
+        long start = SearchMetrics.start();
+        String title = a.getTitle();
+        int loc = hash(title);
+        while(true) {
+            Snapshot s = root.get();
+            Node head = s.bucket(loc);
+            if(lookup(head, title) != null)
+                return false;
+            if(root.compareAndSet(s, s.with(loc, insertHelper(head, a), s.size + 1)))
+                break;
+        }
+        store.adopt(a);
+        SearchMetrics.stop(SearchMetrics.Phase.INSERT, start);
+        SearchMetrics.increment(SearchMetrics.Counter.ARTICLES_INSERTED);
+        return true;
+    } 
+    
+    
+    // returns a copy of LL with a added to the end
+    private static Node insertHelper(Node p, Article a) {
+        if(p == null)
+            return new Node(a);
+        else
+            return new Node(p.data, insertHelper(p.next, a));
+    }     
+    
+    // delete article corresponding to title from table; returns false if it was not there
+    public boolean delete(String title) {
+        int loc = hash(title);
+        while(true) {
+            Snapshot s = root.get();
+            Node head = s.bucket(loc);
+            Node old = lookup(head, title);
+            if(old == null)
+                return false;
+            if(root.compareAndSet(s, s.with(loc, deleteHelper(head, title), s.size - 1))) {
+                released(Collections.singletonList(old.data));
+                return true;
+            }
+        }
+    }
+        
+    // Recursively builds a copy of LL without article with title s
+    private static Node deleteHelper(Node p, String s) {
+        if(p == null)
+            return p;
+        else if(p.data.hasTitle(s))   //found article, cut it off
+            return p.next;
+        else
+            return new Node(p.data, deleteHelper(p.next, s));
+    }
+    
+    // remove the articles titled in remove, then insert those in add, publishing
+    // the result with a single compare-and-set: readers see all of the batch or
+    // none of it. Each touched segment is copied once, and new articles go at
+    // the head of their chain. Returns, per article of add, whether it was
+    // inserted (false if its title was taken)
+    public boolean[] update(Collection<String> remove, List<Article> add) {
+        long start = SearchMetrics.start();
+        while(true) {
+            Snapshot s = root.get();
+            Node[][] segs = s.segments.clone();
+            boolean[] copied = new boolean[SEGMENTS];
+            boolean[] inserted = new boolean[add.size()];
+            List<Article> removed = new ArrayList<Article>();
+            int size = s.size;
+            for(String title : remove) {
+                int loc = hash(title);
+                Node head = segs[loc / SEGMENT][loc % SEGMENT];
+                Node old = lookup(head, title);
+                if(old == null)
+                    continue;
+                removed.add(old.data);
+                writable(segs, copied, loc)[loc % SEGMENT] = deleteHelper(head, title);
+                size--;
+            }
+            for(int i = 0; i < add.size(); i++) {
+                Article a = add.get(i);
+                int loc = hash(a.getTitle());
+                Node head = segs[loc / SEGMENT][loc % SEGMENT];
+                if(lookup(head, a.getTitle()) != null)
+                    continue;
+                writable(segs, copied, loc)[loc % SEGMENT] = new Node(a, head);
+                inserted[i] = true;
+                size++;
+            }
+            if(root.compareAndSet(s, new Snapshot(segs, size))) {
+                int n = 0;
+                for(int i = 0; i < inserted.length; i++) {
+                    if(inserted[i]) {
+                        store.adopt(add.get(i));
+                        n++;
+                    }
+                }
+                released(removed);
+                SearchMetrics.stop(SearchMetrics.Phase.INSERT, start);
+                SearchMetrics.add(SearchMetrics.Counter.ARTICLES_INSERTED, n);
+                return inserted;
+            }
+        }
+    }
+
+    // count the text of articles taken out of the table as dead, compacting
+    // the store once enough of it is
+    private void released(List<Article> removed) {
+        for(Article a : removed)
+            store.release(a);
+        if(store.wantsCompaction())
+            store.compact(this);
+    }
+
+    // the segment holding bucket loc, copied the first time it is changed
+    private static Node[] writable(Node[][] segs, boolean[] copied, int loc) {
+        int seg = loc / SEGMENT;
+        if(!copied[seg]) {
+            segs[seg] = segs[seg].clone();
+            copied[seg] = true;
+        }
+        return segs[seg];
+    }
+
+    // is a in the table?
+    public boolean member(Article a) {
+        return member(a.getTitle());
+    }
+    
+    public boolean member(String title) {
+        return (lookup(title) != null); 
+    }
+    
+    // returns article corresponding to given title, or null if not found
+    public Article lookup(String title) {
+        return root.get().lookup(title);
+    }
+    
+    // returns node corresponding to given key
+    private static Node lookup(Node t, String key) {
+        if (t == null)
+            return null;
+        else if (t.data.hasTitle(key)) {
+            return t;
+        } else 
+            return lookup(t.next, key); 
+    }
+    
+    // number of articles in table
+    public int size() {
+        return root.get().size;
+    }
+    
+    // Iterator Methods
+    // these share one position per table, so they are for single-threaded
+    // callers; concurrent readers should use iterator() or snapshot()
+    
+    // sets pointer to first article in a snapshot of the table
+    public void reset() {
+        Snapshot s = root.get();
+        if(s.size == 0)
+            System.out.println("table is empty! setting pointer to null...");
+        cursor = s.iterator();
+        counter = 1;
+    }
+
+    // are there any more articles?
+    public boolean hasNext() {
+        return cursor != null && cursor.hasNext();
+    }
+    
+    // returns current article and moves to the next one in the snapshot
+    // should always be used with hasNext for checking
+    public Article next() {
+        Article temp = cursor.next();
+        counter++;                                            // increment counter and return saved article
+        return temp;
+    }
+
+    // returns an iterator over a snapshot of the table, with its own position
+    public Iterator<Article> iterator() {
+        return root.get().iterator();
+    }
+
+
+    /*
+     * Helper Methods
+     */
+    
+    // simple hash function using a relatively large prime and title of article
+    private static int hash(String title) {
+        int h = 0;
+        for(int i = 0; i < title.length(); i++)
+            h += (1871 * title.charAt(i));
+        return h % M;      
+    }
+    
+    // returns length of LL
+    private static int length(Node t) {
+        if(t == null)
+            return 0;
+        else
+            return 1 + length(t.next); 
+    }
+    
+    // for debugging, prints size of table, min, max, and mean length of buckets and st dev.
+    private void printStats() {
+        Snapshot s = root.get();
+        System.out.println("AT (length " + M + "):");
+        System.out.println("size of table: " + s.size);
+        
+        int min = length(s.bucket(0));
+        int max = min;
+        double total = min;
+        for(int i = 1; i < M; i++) {
+            int temp = length(s.bucket(i));
+            if(temp > max)
+                max = temp;
+            if(temp < min)
+                min = temp;
+            total += temp;
+        }
+        
+        double mean = total/M;
+        
+        System.out.println("min length bucket: " + min);
+        System.out.println("max length bucket: " + max);
+        System.out.println("mean bucket length: " + mean);
+        
+        total = 0;
+        for(int i = 0; i < M; i++)
+            total += Math.pow(length(s.bucket(i)) - mean, 2);
+        
+        System.out.println("st dev: " + Math.sqrt(total/M));
+    }
+    
+    // add the nodes, buckets and article handles to r, with bucket occupancy
+    void footprint(MemoryReport r) {
+        Snapshot s = root.get();
+        r.add("ArticleTable", "nodes", s.size, s.size * MemoryReport.object(2, 0));
+        r.add("ArticleTable", "bucket segments", SEGMENTS, MemoryReport.object(1, 4) +
+              MemoryReport.refArray(SEGMENTS) + SEGMENTS * MemoryReport.refArray(SEGMENT));
+        r.add("Article", "handles", s.size, s.size * MemoryReport.object(1, 0));
+
+        int empty = 0, max = 0;
+        double squares = 0;
+        for(int i = 0; i < M; i++) {
+            int n = length(s.bucket(i));
+            if(n == 0)
+                empty++;
+            max = Math.max(max, n);
+            squares += (double) n * n;
+        }
+        double mean = (double) s.size / M;
+        r.note("ArticleTable", String.format("%d buckets, %d empty; chains average %.2f (st dev %.2f), longest %d",
+                                             M, empty, mean, Math.sqrt(squares / M - mean * mean), max));
+    }
+
+    // simple unit test
+    public static void main(String[] args) {
+        String dbPath = "articles/";
+        
+        DatabaseIterator db = new DatabaseIterator(dbPath);
+        int numArticles = db.getNumArticles();
+        
+        System.out.println("Read " + numArticles + " articles from disk.");
+        
+        ArticleTable T = new ArticleTable(); 
+        
+        // create array - taken from getArticleList in Minipedia.java
+        Article[] A = new Article[numArticles];
+        for(int i = 0; i < numArticles; ++i)
+            A[i] = db.next();
+        
+        T.initialize(A);
+        T.printStats();
+        System.out.println();
+        
+        System.out.println("testing iterator.... counts number of articles and prints title of every 100th article");
+        T.reset();
+        int count = 0;
+        while(T.hasNext()) {
+            Article a = T.next();
+            if(T.counter % 100 == 0)
+                System.out.println(a.getTitle());
+            count++;
+        }
+        System.out.println();
+        System.out.println("After iterating through, count should be\n" + T.size());
+        System.out.println(count);
+        System.out.println();
+        
+        Article a = A[77];
+        System.out.println("Testing member for \"" + a.getTitle() + "\"... should be\ntrue");
+        System.out.println(T.member(a));
+        System.out.println();
+        
+        System.out.println("Trying to find 'Singapore' in table...");
+        System.out.println(T.lookup("Singapore"));
+        System.out.println();
+        
+        System.out.println("Trying to delete 'Malaysia'...");
+        System.out.println("\tis 'Malaysia' in table?");
+        System.out.println("\t" + T.member("Malaysia"));
+        a = T.lookup("Malaysia");
+        System.out.println("Deleting...");
+        T.delete("Malaysia");
+        System.out.println("\tcheck: is 'Malaysia' in table?");
+        System.out.println("\t" + T.member("Malaysia"));
+        System.out.println();
+        
+        System.out.println("Inserting 'Malaysia' back into relevance...");
+        T.insert(a);
+        System.out.println("Now lookup and print:");
+        System.out.println(T.lookup("Malaysia"));
+        
+        System.out.println("Trying to lookup and print 'Tim Lim'...");
+        System.out.println(T.lookup("Tim Lim"));
+        System.out.println();
+        System.out.println("Trying to delete 'Tim Lim'... nothing should happen");
+        T.delete("Tim Lim");
+        System.out.println();
+        
+        System.out.println("Trying to insert 'Malaysia' again... nothing should happen");
+        T.insert(a);
+        System.out.println();
+        
+        
+        System.out.println("checking table stats... (should be identical to original stats above)");
+        T.printStats();
+        System.out.println();
+        
+        System.out.println("Taking a snapshot, then deleting 'Singapore'... snapshot should still have it");
+        Snapshot s = T.snapshot();
+        T.delete("Singapore");
+        System.out.println("\ttable: " + T.member("Singapore") + ", snapshot: " + s.member("Singapore"));
+        System.out.println("\tsizes: " + T.size() + ", " + s.size());
+        T.insert(s.lookup("Singapore"));
+            
+    }
+    
+    
+    // inner node class for LL of Articles; never modified once published
+    private static class Node {
+        public final Article data;
+        public final Node next;
+        
+        public Node(Article data, Node n) {
+            this.data = data;
+            this.next = n;
+        }
+        
+        public Node(Article data) {
+            this(data, null);
+        }
+        
+        public String toString() {
+            if(this.data == null)
+                return null;
+            return this.data.getTitle() + " -> " + this.next;
+        }
+    }
+    
+    // the contents of the table at one moment: segments of buckets plus the article count.
+    // immutable, so any number of threads can read one while writers publish newer ones
+    public static class Snapshot implements Iterable<Article> {
+        private final Node[][] segments;
+        private final int size;
+        
+        private Snapshot(Node[][] segments, int size) {
+            this.segments = segments;
+            this.size = size;
+        }
+        
+        public int size() {
+            return size;
+        }
+        
+        public Article lookup(String title) {
+            Node n = ArticleTable.lookup(bucket(hash(title)), title);
+            if(n != null)
+                return n.data;
+            return null;
+        }
+        
+        public boolean member(String title) {
+            return lookup(title) != null;
+        }
+        
+        public Iterator<Article> iterator() {
+            return new TableIterator(this);
+        }
+        
+        private Node bucket(int loc) {
+            return segments[loc / SEGMENT][loc % SEGMENT];
+        }
+        
+        // a new snapshot with bucket loc replaced; copies only the segment it lives in
+        private Snapshot with(int loc, Node head, int newSize) {
+            Node[][] segs = segments.clone();
+            Node[] seg = segs[loc / SEGMENT].clone();
+            seg[loc % SEGMENT] = head;
+            segs[loc / SEGMENT] = seg;
+            return new Snapshot(segs, newSize);
+        }
+    }
+    
+    // inner iterator class: walks the buckets of a snapshot in order, keeping its position locally
+    private static class TableIterator implements Iterator<Article> {
+        private final Snapshot s;
+        private Node p;        // next node to return
+        private int r = -1;    // row of p
+        
+        public TableIterator(Snapshot s) {
+            this.s = s;
+            advance();
+        }
+        
+        public boolean hasNext() {
+            return p != null;
+        }
+        
+        public Article next() {
+            if(p == null)
+                throw new NoSuchElementException();
+            Article temp = p.data;
+            p = p.next;
+            if(p == null)
+                advance();
+            return temp;
+        }
+        
+        // move p to the head of the next non-empty bucket (or null if at end)
+        private void advance() {
+            for(r = r + 1; r < M; r++) {
+                Node n = s.bucket(r);
+                if(n != null) {
+                    p = n;
+                    return;
+                }
+            }
+            p = null;
+        }
+    }
+}
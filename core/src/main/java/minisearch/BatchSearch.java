@@ -0,0 +1,205 @@
+/*
+ * BatchSearch.java
+ *
+ * Non-interactive counterpart to MiniSearch: reads search phrases one per
+ * line from a file (or standard input), runs them against the database on
+ * a pool of threads, and writes the hits for each phrase as a TSV or JSON
+ * line in input order. When all phrases are done, the throughput (queries
+ * per second) and the p50/p95/p99 latencies are reported on standard error,
+ * followed by the per-phase breakdown if run with -Dminisearch.metrics=true.
+ *
+ * usage: java minisearch.BatchSearch [-db dir] [-threads n] [-k hits] [-format tsv|json]
+ *                         [-out file] [queryFile | -]
+ */
+
+package minisearch;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class BatchSearch {
+
+    private static void usage() {
+        System.err.println("usage: java minisearch.BatchSearch [-db dir] [-threads n] [-k hits] " +
+                           "[-format tsv|json] [-out file] [queryFile | -]");
+        System.exit(2);
+    }
+
+    public static void main(String[] args) throws Exception {
+        SearchMetrics.configure();
+        String dbPath = "articles/";
+        String queryFile = "-";
+        String outFile = null;
+        String format = "tsv";
+        int threads = 1;
+        int k = 3;
+
+        for(int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if(arg.equals("-db") && i + 1 < args.length)
+                dbPath = args[++i];
+            else if(arg.equals("-threads") && i + 1 < args.length)
+                threads = Integer.parseInt(args[++i]);
+            else if(arg.equals("-k") && i + 1 < args.length)
+                k = Integer.parseInt(args[++i]);
+            else if(arg.equals("-format") && i + 1 < args.length)
+                format = args[++i];
+            else if(arg.equals("-out") && i + 1 < args.length)
+                outFile = args[++i];
+            else if(arg.startsWith("-") && !arg.equals("-"))
+                usage();
+            else
+                queryFile = arg;
+        }
+
+        if(threads < 1 || k < 1 || !(format.equals("tsv") || format.equals("json")))
+            usage();
+
+        DatabaseIterator db = new DatabaseIterator(dbPath);
+        ArticleTable T = new ArticleTable();
+        for(int i = 0; i < db.getNumArticles(); i++)
+            T.insert(db.next());
+        System.err.println("Read " + db.getNumArticles() + " articles from disk.");
+
+        List<String> queries = readQueries(queryFile);
+        SearchEngine E = new SearchEngine(T);
+
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+            outFile == null ? System.out : new FileOutputStream(outFile), StandardCharsets.UTF_8)));
+
+        long[] latencies = run(E, queries, threads, k, format.equals("json"), out);
+        out.flush();
+        if(outFile != null)
+            out.close();
+
+        printReport(latencies, queries.size());
+        if(SearchMetrics.enabled()) {
+            System.err.println();
+            System.err.print(SearchMetrics.report());
+        }
+    }
+
+    // read non-blank lines from file, or from standard input if file is "-"
+    private static List<String> readQueries(String file) throws IOException {
+        InputStream in = file.equals("-") ? System.in : new FileInputStream(file);
+        BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        List<String> queries = new ArrayList<String>();
+        String line;
+        while((line = r.readLine()) != null) {
+            if(!line.trim().isEmpty())
+                queries.add(line);
+        }
+        if(in != System.in)
+            r.close();
+        return queries;
+    }
+
+    // runs every query on a pool of the given size and writes the results in input order.
+    // returns a latency in nanoseconds per query; the last element is the total wall time.
+    private static long[] run(final SearchEngine E, List<String> queries, int threads,
+                              final int k, boolean json, PrintWriter out) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Result>> futures = new ArrayList<Future<Result>>(queries.size());
+        long[] latencies = new long[queries.size() + 1];
+
+        long start = System.nanoTime();
+        try {
+            for(final String q : queries) {
+                futures.add(pool.submit(new Callable<Result>() {
+                    public Result call() {
+                        long t0 = System.nanoTime();
+                        SearchEngine.Hits hits = E.search(q, k);
+                        return new Result(q, hits, System.nanoTime() - t0);
+                    }
+                }));
+            }
+
+            for(int i = 0; i < futures.size(); i++) {
+                Result r = futures.get(i).get();
+                latencies[i] = r.nanos;
+                long t = SearchMetrics.start();
+                out.println(json ? r.toJson(i) : r.toTsv(i));
+                SearchMetrics.stop(SearchMetrics.Phase.RENDER, t);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        latencies[queries.size()] = System.nanoTime() - start;
+        return latencies;
+    }
+
+    private static void printReport(long[] latencies, int n) {
+        long wall = latencies[n];
+        long[] sorted = Arrays.copyOf(latencies, n);
+        Arrays.sort(sorted);
+
+        double seconds = wall / 1e9;
+        System.err.println();
+        System.err.println("queries:  " + n);
+        System.err.println("wall:     " + String.format("%.3f s", seconds));
+        System.err.println("qps:      " + String.format("%.1f", n == 0 ? 0.0 : n / seconds));
+        System.err.println("p50:      " + millis(percentile(sorted, 50)));
+        System.err.println("p95:      " + millis(percentile(sorted, 95)));
+        System.err.println("p99:      " + millis(percentile(sorted, 99)));
+        System.err.println("max:      " + millis(n == 0 ? 0 : sorted[n - 1]));
+    }
+
+    // nearest-rank percentile of an ascending array
+    static long percentile(long[] sorted, double p) {
+        if(sorted.length == 0)
+            return 0;
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f ms", nanos / 1e6);
+    }
+
+    // replace the characters TSV uses as separators
+    private static String tsvField(String s) {
+        return s.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+
+    // hits and latency for one query
+    private static class Result {
+        private final String query;
+        private final SearchEngine.Hits hits;
+        private final long nanos;
+
+        public Result(String query, SearchEngine.Hits hits, long nanos) {
+            this.query = query;
+            this.hits = hits;
+            this.nanos = nanos;
+        }
+
+        // id, latency, query, then a title and score column per hit
+        public String toTsv(int id) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(id).append('\t').append(nanos / 1000).append('\t').append(tsvField(query));
+            for(SearchEngine.Hit h : hits)
+                sb.append('\t').append(tsvField(h.getArticle().getTitle())).append('\t').append(h.getScore());
+            return sb.toString();
+        }
+
+        public String toJson(int id) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\"id\":").append(id)
+              .append(",\"query\":").append(Json.quote(query))
+              .append(",\"latency_us\":").append(nanos / 1000)
+              .append(",\"hits\":[");
+            for(int i = 0; i < hits.size(); i++) {
+                SearchEngine.Hit h = hits.get(i);
+                if(i > 0)
+                    sb.append(',');
+                sb.append("{\"title\":").append(Json.quote(h.getArticle().getTitle()))
+                  .append(",\"score\":").append(Json.number(h.getScore())).append('}');
+            }
+            sb.append(hits.isPartial() ? "],\"partial\":true}" : "]}");
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * BulkUpdate.java
+ *
+ * A batch of article additions and deletions, applied to a SearchEngine
+ * in one go with SearchEngine.apply. The operations take effect as if
+ * applied one after another, but the table is updated with a single
+ * compare-and-set and each term's postings are rewritten once for the
+ * whole batch, so loading tens of thousands of articles costs little more
+ * than building the engine from scratch.
+ *
+ * Batches can be read from JSON lines, one operation per line:
+ *
+ *     {"op": "add", "title": "...", "body": "..."}
+ *     {"op": "delete", "title": "..."}
+ *
+ * ("op" may be left out of additions). In code, replace(oldTitle, a) also
+ * swaps an article for a new one as SearchEngine.replace does: if a is
+ * refused (its title taken by another article, or a near-duplicate under
+ * Policy.COLLAPSE), the old article stays. Run main to apply a file of them to
+ * the article database and see the counts and timing:
+ *
+ * usage: java minisearch.BulkUpdate [-db dir] [file | -]
+ */
+
+package minisearch;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class BulkUpdate {
+
+    private final List<Op> ops = new ArrayList<Op>();
+
+    public BulkUpdate add(Article a) {
+        ops.add(new Op(a.getTitle(), a));
+        return this;
+    }
+
+    public BulkUpdate delete(String title) {
+        ops.add(new Op(title, null));
+        return this;
+    }
+
+    // delete oldTitle and add a, unless a is refused, in which case the
+    // article titled oldTitle is left as it was. Counts as a deletion and an
+    // addition, or as a skipped or rejected addition
+    public BulkUpdate replace(String oldTitle, Article a) {
+        ops.add(new Op(a.getTitle(), a, oldTitle));
+        return this;
+    }
+
+    public int size() {
+        return ops.size();
+    }
+
+    List<Op> ops() {
+        return ops;
+    }
+
+    // read one operation per non-blank line; throws IllegalArgumentException
+    // naming the line if one is not a valid operation
+    public static BulkUpdate parse(BufferedReader r) throws IOException {
+        BulkUpdate u = new BulkUpdate();
+        String line;
+        int n = 0;
+        while((line = r.readLine()) != null) {
+            n++;
+            if(line.trim().isEmpty())
+                continue;
+            try {
+                Map<String, Object> o = Json.parseObject(line);
+                Object op = o.containsKey("op") ? o.get("op") : "add";
+                Object title = o.get("title");
+                Object body = o.get("body");
+                if(!(title instanceof String) || ((String) title).isEmpty())
+                    throw new IllegalArgumentException("missing \"title\"");
+                if(op.equals("add") && body instanceof String)
+                    u.add(new Article((String) title, (String) body));
+                else if(op.equals("delete"))
+                    u.delete((String) title);
+                else
+                    throw new IllegalArgumentException("expected {\"op\": \"add\", \"title\": ..., \"body\": ...} " +
+                                                       "or {\"op\": \"delete\", \"title\": ...}");
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("line " + n + ": " + e.getMessage());
+            }
+        }
+        return u;
+    }
+
+
+    // one addition (article != null) or deletion; an addition may replace
+    // the article titled replaces
+    static class Op {
+        final String title;
+        final Article article;
+        final String replaces;
+
+        Op(String title, Article article) {
+            this(title, article, null);
+        }
+
+        Op(String title, Article article, String replaces) {
+            this.title = title;
+            this.article = article;
+            this.replaces = replaces;
+        }
+    }
+
+    // what applying a batch did
+    public static class Result {
+        public int added;        // articles added
+        public int deleted;      // articles deleted
+        public int skipped;      // additions whose title was already taken
+        public int missing;      // deletions of titles that were not there
+        public int rejected;     // additions left out as near-duplicates
+        public long nanos;
+
+        public String toString() {
+            return String.format("%d added, %d deleted, %d skipped (title taken), %d missing, " +
+                                 "%d rejected (near-duplicate) in %.1f ms",
+                                 added, deleted, skipped, missing, rejected, nanos / 1e6);
+        }
+
+        public String toJson() {
+            return "{\"added\":" + added + ",\"deleted\":" + deleted + ",\"skipped\":" + skipped +
+                   ",\"missing\":" + missing + ",\"rejected\":" + rejected +
+                   ",\"millis\":" + Json.number(nanos / 1e6) + "}";
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        SearchMetrics.configure();
+        String dbPath = "articles/";
+        String file = "-";
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].equals("-db") && i + 1 < args.length)
+                dbPath = args[++i];
+            else if(args[i].startsWith("-") && !args[i].equals("-")) {
+                System.err.println("usage: java minisearch.BulkUpdate [-db dir] [file | -]");
+                System.exit(2);
+            } else
+                file = args[i];
+        }
+
+        DatabaseIterator db = new DatabaseIterator(dbPath);
+        ArticleTable T = new ArticleTable();
+        for(int i = 0; i < db.getNumArticles(); i++)
+            T.insert(db.next());
+        SearchEngine E = new SearchEngine(T);
+        System.out.println("Read " + db.getNumArticles() + " articles from disk.");
+
+        InputStream in = file.equals("-") ? System.in : new FileInputStream(file);
+        BulkUpdate u = parse(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+        in.close();
+        System.out.println("Read " + u.size() + " operations.");
+        System.out.println(E.apply(u));
+        System.out.println("Now " + T.size() + " articles.");
+    }
+}
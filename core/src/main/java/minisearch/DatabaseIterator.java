@@ -0,0 +1,136 @@
+/*
+ * DatabaseIterator.java
+ *
+ * Given a path to the directory containing articles,
+ * an instance of this class can iterate through the files,
+ * giving a client a reference to a new Article object
+ * corresponding to the file.
+ *
+*/
+
+package minisearch;
+
+import java.util.*;
+import java.io.*;
+
+public class DatabaseIterator implements Iterator<Article> {
+
+    private String directoryPath;
+    private File[] children;
+    private int next;
+
+    public DatabaseIterator(String path) {
+        this.directoryPath = path;
+        this.next = 0;
+        this.children = findChildren(path);
+    }
+
+    // only the articles whose titles fall in shard (0 <= shard < shards),
+    // see SearchCoordinator.shardOf. Empty files are left out
+    public DatabaseIterator(String path, int shard, int shards) {
+        this(path);
+        List<File> kept = new ArrayList<File>();
+        for (File f : children) {
+            String title = readTitle(f);
+            if (title != null && SearchCoordinator.shardOf(title, shards) == shard)
+                kept.add(f);
+        }
+        this.children = kept.toArray(new File[kept.size()]);
+    }
+
+
+    public boolean hasNext() {
+        return next < children.length - 1;
+    }
+
+
+    public Article next() {
+        long start = SearchMetrics.start();
+        Article a = read(children[next]);
+        if (a == null)
+            throw new NoSuchElementException("empty article file " + children[next]);
+
+        next++;
+        SearchMetrics.stop(SearchMetrics.Phase.READ, start);
+        SearchMetrics.increment(SearchMetrics.Counter.ARTICLES_READ);
+        return a;
+    }
+
+    // read one article file: the first line is the title, the rest the body.
+    // returns null if the file is empty
+    public static Article read(File f) {
+        Scanner s = null;
+
+        try {
+            s = new Scanner(f, "UTF-8");
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException("child does not exist -- " +
+                                       "was it deleted?");
+        }
+
+        try {
+            if (!s.hasNextLine())
+                return null;
+            String title = s.nextLine();
+            StringBuilder body = new StringBuilder();
+
+            while (s.hasNextLine())
+                body.append(s.nextLine()).append('\n');
+
+            return new Article(title, body.toString());
+        } finally {
+            s.close();
+        }
+    }
+
+    // the title (first line) of an article file, or null if it is empty
+    public static String readTitle(File f) {
+        Scanner s = null;
+
+        try {
+            s = new Scanner(f, "UTF-8");
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException("child does not exist -- " +
+                                       "was it deleted?");
+        }
+
+        try {
+            return s.hasNextLine() ? s.nextLine() : null;
+        } finally {
+            s.close();
+        }
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+
+    public void reset() {
+        next = 0;
+    }
+
+
+    public int getNumArticles() {
+        return children.length;
+    }
+
+    private File[] findChildren(String path) throws IllegalArgumentException {
+        File dir = new File(path);
+
+        if (!dir.exists())
+            throw new IllegalArgumentException("directory does not exist");
+
+        if (!dir.isDirectory())
+            throw new IllegalArgumentException("path does not refer to " +
+                                               "a directory");
+
+        File[] cs = dir.listFiles();
+
+        if (cs == null)
+            throw new RuntimeException("an error occured getting files " +
+                                       "under directory");
+
+        return cs;
+    }
+}
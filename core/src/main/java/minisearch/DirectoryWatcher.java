@@ -0,0 +1,274 @@
+/*
+ * DirectoryWatcher.java
+ *
+ * Keeps a SearchEngine in step with the article directory while it runs.
+ * A background thread waits on a java.nio.file.WatchService for .txt files
+ * being created, modified or deleted, collects the changes until the
+ * directory has been quiet for a short while (or a batch is full), and
+ * then applies them: new and changed files are read and (re)inserted,
+ * deleted files have their article removed. Several events for the same
+ * file in one batch count once, so a file written in several steps is
+ * only read when it is complete.
+ *
+ * A deleted file can no longer be read, so the watcher remembers the title
+ * each file was loaded under. If two files have the same title, the one
+ * loaded first owns it, and deleting the other leaves the article alone.
+ *
+ * Each batch is applied as one BulkUpdate (changed files as
+ * BulkUpdate.replace, so a refused new text leaves the old article in
+ * place): the table and index are updated once, the mutation log is
+ * synced once, and searches see the whole batch or none of it. Writers
+ * are serialized meanwhile; searches continue.
+ */
+
+package minisearch;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+public class DirectoryWatcher {
+
+    private static final int MAX_BATCH = 1000;
+
+    private final SearchEngine E;
+    private final Path dir;
+    private final long quietMillis;
+    private final Map<Path, String> titles = new HashMap<Path, String>();    // file -> title it was loaded under
+    private final Map<String, Path> owners = new HashMap<String, Path>();    // title -> file it came from
+    private WatchService watcher;
+    private Thread thread;
+    private volatile boolean running;
+    private volatile long batches, added, changed, removed;
+
+    // quietMillis: how long the directory must be quiet before a batch is applied
+    public DirectoryWatcher(SearchEngine E, String dir, long quietMillis) {
+        this.E = E;
+        this.dir = Paths.get(dir);
+        this.quietMillis = quietMillis;
+    }
+
+    // remember which titles the files already in the directory hold, then start watching
+    public synchronized void start() throws IOException {
+        if(running)
+            return;
+        watcher = dir.getFileSystem().newWatchService();
+        dir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        File[] files = dir.toFile().listFiles();
+        if(files != null) {
+            for(File f : files) {
+                String title = firstLine(f);
+                if(title != null && E.lookup(title) != null)
+                    own(f.toPath(), title);
+            }
+        }
+        running = true;
+        thread = new Thread(new Runnable() {
+            public void run() {
+                loop();
+            }
+        }, "directory-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if(thread != null)
+            thread.interrupt();
+        try {
+            if(watcher != null)
+                watcher.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    public String toString() {
+        return "watching " + dir + ": " + batches + " batches, " + added + " added, " +
+               changed + " changed, " + removed + " removed";
+    }
+
+    private void loop() {
+        while(running) {
+            try {
+                WatchKey key = watcher.take();
+                Map<Path, Boolean> batch = new LinkedHashMap<Path, Boolean>();   // file -> exists?
+                boolean rescan = false;
+                while(key != null) {
+                    rescan |= collect(key, batch);
+                    if(batch.size() >= MAX_BATCH)
+                        break;
+                    key = watcher.poll(quietMillis, TimeUnit.MILLISECONDS);
+                }
+                if(rescan)
+                    rescan(batch);
+                apply(batch);
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            } catch (RuntimeException e) {
+                System.err.println("directory watcher: " + e);
+            }
+        }
+    }
+
+    // add the events of key to batch; returns true if events were lost
+    private boolean collect(WatchKey key, Map<Path, Boolean> batch) {
+        boolean overflow = false;
+        for(WatchEvent<?> e : key.pollEvents()) {
+            if(e.kind() == OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            Path p = dir.resolve((Path) e.context());
+            if(p.getFileName().toString().endsWith(".txt"))
+                batch.put(p, e.kind() != ENTRY_DELETE);
+        }
+        key.reset();
+        return overflow;
+    }
+
+    // events were dropped: look at every file we know of and every file there is
+    private void rescan(Map<Path, Boolean> batch) {
+        for(Path p : new ArrayList<Path>(titles.keySet()))
+            batch.put(p, Files.exists(p));
+        File[] files = dir.toFile().listFiles();
+        if(files != null) {
+            for(File f : files) {
+                if(f.getName().endsWith(".txt") && !titles.containsKey(f.toPath()))
+                    batch.put(f.toPath(), true);
+            }
+        }
+    }
+
+    private void apply(Map<Path, Boolean> batch) {
+        long start = System.nanoTime();
+        Map<Path, String> titlesBefore = new HashMap<Path, String>(titles);
+        Map<String, Path> ownersBefore = new HashMap<String, Path>(owners);
+        BulkUpdate u = new BulkUpdate();
+        List<Change> changes = new ArrayList<Change>();
+        Map<String, Boolean> present = new HashMap<String, Boolean>();   // titles the batch adds or deletes so far
+        for(Map.Entry<Path, Boolean> e : batch.entrySet()) {
+            Path p = e.getKey();
+            String old = titles.get(p);
+            Article article = e.getValue() && Files.isRegularFile(p) ? readArticle(p) : null;
+
+            if(article == null) {                // deleted (or emptied)
+                if(old != null && disown(p, old)) {
+                    u.delete(old);
+                    present.put(old, false);
+                    changes.add(new Change(p, old, null, true));
+                }
+                continue;
+            }
+            String title = article.getTitle();
+            Path owner = owners.get(title);
+            if(owner != null && !owner.equals(p))
+                continue;                        // another file holds this title
+            // the file replaces what it held before, or an article of the same
+            // title that did not come from a file
+            boolean exists = present.containsKey(title) ? present.get(title) : E.lookup(title) != null;
+            String replaced = old != null ? old : exists ? title : null;
+            if(replaced == null)
+                u.add(article);
+            else {
+                u.replace(replaced, article);
+                present.put(replaced, false);
+            }
+            present.put(title, true);
+            if(old != null)
+                disown(p, old);
+            own(p, title);
+            changes.add(new Change(p, old, article, replaced != null));
+        }
+
+        try {
+            E.apply(u);
+        } catch (RuntimeException ex) {      // nothing was applied
+            titles.clear();
+            titles.putAll(titlesBefore);
+            owners.clear();
+            owners.putAll(ownersBefore);
+            throw ex;
+        }
+
+        // count what took effect. A file whose new text was refused still
+        // holds the article it held before, which was left in place
+        int a = 0, c = 0, r = 0;
+        for(Change ch : changes) {
+            if(ch.article == null) {
+                if(E.lookup(ch.old) == null)
+                    r++;
+            } else if(E.lookup(ch.article.getTitle()) == ch.article) {
+                if(ch.replaces)
+                    c++;
+                else
+                    a++;
+            } else {
+                disown(ch.file, ch.article.getTitle());
+                if(ch.old != null && E.lookup(ch.old) != null && owners.get(ch.old) == null)
+                    own(ch.file, ch.old);
+            }
+        }
+        batches++;
+        added += a;
+        changed += c;
+        removed += r;
+        System.err.printf("directory watcher: %d added, %d changed, %d removed in %.1f ms%n",
+                          a, c, r, (System.nanoTime() - start) / 1e6);
+    }
+
+    private void own(Path p, String title) {
+        titles.put(p, title);
+        owners.put(title, p);
+    }
+
+    // forget that p holds title; returns false if it did not own it
+    private boolean disown(Path p, String title) {
+        titles.remove(p);
+        if(!p.equals(owners.get(title)))
+            return false;
+        owners.remove(title);
+        return true;
+    }
+
+    // the article in file p, or null if it is gone or empty
+    private static Article readArticle(Path p) {
+        try {
+            return DatabaseIterator.read(p.toFile());
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    // one file's part of a batch: the title it held before, and the article
+    // now read from it (null if it was deleted)
+    private static class Change {
+        final Path file;
+        final String old;
+        final Article article;
+        final boolean replaces;                  // article replaces one already there
+
+        Change(Path file, String old, Article article, boolean replaces) {
+            this.file = file;
+            this.old = old;
+            this.article = article;
+            this.replaces = replaces;
+        }
+    }
+
+    private static String firstLine(File f) {
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"))) {
+            return r.readLine();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * HnswGraph.java
+ *
+ * A Hierarchical Navigable Small World graph (Malkov & Yashunin) for
+ * approximate nearest neighbor search over unit-length float vectors,
+ * where "nearest" means the largest dot product (cosine similarity).
+ *
+ * Every node is on layer 0; a node is also on layers 1..level with
+ * probability falling off by a factor of M per layer. Each layer links a
+ * node to at most M others (2M on layer 0). A search starts at the single
+ * node on the top layer, walks greedily down to layer 0, and there does a
+ * best-first search keeping the ef best nodes seen; larger ef means better
+ * recall and slower searches. efConstruction is the ef used while linking
+ * new nodes.
+ *
+ * Nodes are numbered 0, 1, 2, ... in the order they are added and are never
+ * removed (callers skip nodes they no longer want). Searches may run in
+ * parallel with each other; add() takes a write lock.
+ */
+
+package minisearch;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class HnswGraph {
+
+    private static final VectorKernel KERNEL = VectorKernel.get();
+
+    private final int dim;
+    private final int M;
+    private final int efConstruction;
+    private final double levelFactor;            // 1 / ln(M)
+    private final Random random;
+
+    private float[][] vectors = new float[64][];
+    private int[][][] links = new int[64][][];   // node -> layer -> neighbors (first element is the count)
+    private int size;
+    private int entry = -1;                      // node on the top layer
+    private int topLevel = -1;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ThreadLocal<Visited> visited = new ThreadLocal<Visited>();
+
+    public HnswGraph(int dim, int M, int efConstruction, long seed) {
+        if(dim < 1 || M < 2 || efConstruction < 1)
+            throw new IllegalArgumentException("need dim >= 1, M >= 2 and efConstruction >= 1");
+        this.dim = dim;
+        this.M = M;
+        this.efConstruction = efConstruction;
+        this.levelFactor = 1.0 / Math.log(M);
+        this.random = new Random(seed);
+    }
+
+    public int dimension() {
+        return dim;
+    }
+
+    public int getM() {
+        return M;
+    }
+
+    public int getEfConstruction() {
+        return efConstruction;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // add a unit-length vector as the next node; returns its number
+    public int add(float[] v) {
+        if(v.length != dim)
+            throw new IllegalArgumentException("expected a vector of dimension " + dim);
+        lock.writeLock().lock();
+        try {
+            int node = size;
+            int level = (int) (-Math.log(1.0 - random.nextDouble()) * levelFactor);
+            grow(node + 1);
+            vectors[node] = v;
+            links[node] = new int[level + 1][];
+            for(int l = 0; l <= level; l++)
+                links[node][l] = new int[1 + maxLinks(l) + 1];  // room for one extra before pruning
+            size++;
+
+            if(entry < 0) {
+                entry = node;
+                topLevel = level;
+                return node;
+            }
+
+            // greedy descent through the layers above the new node's top layer
+            int ep = entry;
+            for(int l = topLevel; l > level; l--)
+                ep = greedy(v, ep, l);
+
+            // on each of its layers, link it to the best of efConstruction candidates
+            for(int l = Math.min(level, topLevel); l >= 0; l--) {
+                Queue<Candidate> found = searchLayer(v, ep, efConstruction, l);
+                List<Candidate> sorted = sortDescending(found);
+                ep = sorted.get(0).node;
+                int[] chosen = selectNeighbors(v, sorted, M);
+                for(int n : chosen) {
+                    append(node, l, n);
+                    append(n, l, node);
+                    if(links[n][l][0] > maxLinks(l))
+                        prune(n, l);
+                }
+            }
+
+            if(level > topLevel) {
+                topLevel = level;
+                entry = node;
+            }
+            return node;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // up to ef nodes close to q as {node, similarity} pairs, most similar
+    // first. Nodes for which accept returns false are walked through but not
+    // returned (accept may be null)
+    public List<Candidate> search(float[] q, int ef, NodeFilter accept) {
+        lock.readLock().lock();
+        try {
+            if(entry < 0)
+                return new ArrayList<Candidate>();
+            int ep = entry;
+            for(int l = topLevel; l > 0; l--)
+                ep = greedy(q, ep, l);
+            List<Candidate> sorted = sortDescending(searchLayer(q, ep, ef, 0));
+            if(accept == null)
+                return sorted;
+            List<Candidate> kept = new ArrayList<Candidate>(sorted.size());
+            for(Candidate c : sorted) {
+                if(accept.accept(c.node))
+                    kept.add(c);
+            }
+            return kept;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Helper Methods
+     */
+
+    private int maxLinks(int layer) {
+        return layer == 0 ? 2 * M : M;
+    }
+
+    private void grow(int n) {
+        if(n > vectors.length) {
+            int cap = Math.max(n, vectors.length * 2);
+            vectors = Arrays.copyOf(vectors, cap);
+            links = Arrays.copyOf(links, cap);
+        }
+    }
+
+    private void append(int node, int layer, int n) {
+        int[] l = links[node][layer];
+        l[++l[0]] = n;
+    }
+
+    // move from ep to a more similar neighbor on layer until there is none
+    private int greedy(float[] q, int ep, int layer) {
+        float best = dot(q, vectors[ep]);
+        boolean moved = true;
+        while(moved) {
+            moved = false;
+            int[] l = links[ep][layer];
+            for(int i = 1; i <= l[0]; i++) {
+                float s = dot(q, vectors[l[i]]);
+                if(s > best) {
+                    best = s;
+                    ep = l[i];
+                    moved = true;
+                }
+            }
+        }
+        return ep;
+    }
+
+    // best-first search of one layer from ep; returns the ef most similar nodes
+    // found, in a queue with the least similar at the head
+    private Queue<Candidate> searchLayer(float[] q, int ep, int ef, int layer) {
+        Visited seen = visited();
+        seen.clear(size);
+        seen.add(ep);
+        Candidate first = new Candidate(ep, dot(q, vectors[ep]));
+        PriorityQueue<Candidate> frontier = new PriorityQueue<Candidate>(ef, Candidate.MOST_SIMILAR_FIRST);
+        PriorityQueue<Candidate> found = new PriorityQueue<Candidate>(ef + 1, Candidate.LEAST_SIMILAR_FIRST);
+        frontier.add(first);
+        found.add(first);
+
+        while(!frontier.isEmpty()) {
+            Candidate c = frontier.poll();
+            if(c.similarity < found.peek().similarity && found.size() >= ef)
+                break;                           // everything left is worse than the ef-th best
+            int[] l = links[c.node][layer];
+            for(int i = 1; i <= l[0]; i++) {
+                int n = l[i];
+                if(!seen.add(n))
+                    continue;
+                float s = dot(q, vectors[n]);
+                if(found.size() < ef || s > found.peek().similarity) {
+                    Candidate d = new Candidate(n, s);
+                    frontier.add(d);
+                    found.add(d);
+                    if(found.size() > ef)
+                        found.poll();
+                }
+            }
+        }
+        return found;
+    }
+
+    // pick up to m neighbors for v from candidates (most similar first), skipping
+    // any that is closer to an already chosen neighbor than to v. This keeps
+    // links pointing in different directions, which keeps clusters connected
+    private int[] selectNeighbors(float[] v, List<Candidate> candidates, int m) {
+        int[] chosen = new int[m];
+        int n = 0;
+        for(Candidate c : candidates) {
+            if(n == m)
+                break;
+            boolean keep = true;
+            for(int i = 0; i < n && keep; i++) {
+                if(dot(vectors[c.node], vectors[chosen[i]]) > c.similarity)
+                    keep = false;
+            }
+            if(keep)
+                chosen[n++] = c.node;
+        }
+        // fill up with the closest skipped ones, so sparse regions still get m links
+        for(Candidate c : candidates) {
+            if(n == m)
+                break;
+            boolean taken = false;
+            for(int i = 0; i < n && !taken; i++)
+                taken = chosen[i] == c.node;
+            if(!taken)
+                chosen[n++] = c.node;
+        }
+        return Arrays.copyOf(chosen, n);
+    }
+
+    // node has one link too many on layer: drop the one least similar to it
+    private void prune(int node, int layer) {
+        int[] l = links[node][layer];
+        int worst = 1;
+        float worstSim = Float.MAX_VALUE;
+        for(int i = 1; i <= l[0]; i++) {
+            float s = dot(vectors[node], vectors[l[i]]);
+            if(s < worstSim) {
+                worstSim = s;
+                worst = i;
+            }
+        }
+        l[worst] = l[l[0]--];
+    }
+
+    private static List<Candidate> sortDescending(Queue<Candidate> q) {
+        List<Candidate> l = new ArrayList<Candidate>(q);
+        Collections.sort(l, Candidate.MOST_SIMILAR_FIRST);
+        return l;
+    }
+
+    private Visited visited() {
+        Visited v = visited.get();
+        if(v == null)
+            visited.set(v = new Visited());
+        return v;
+    }
+
+    static float dot(float[] a, float[] b) {
+        return KERNEL.dot(a, b);
+    }
+
+    // add the vectors and links to r
+    void footprint(MemoryReport r) {
+        lock.readLock().lock();
+        try {
+            long linkBytes = MemoryReport.refArray(links.length), degree = 0;
+            for(int node = 0; node < size; node++) {
+                linkBytes += MemoryReport.refArray(links[node].length);
+                for(int[] l : links[node])
+                    linkBytes += MemoryReport.array(l.length, 4);
+                degree += links[node][0][0];
+            }
+            r.add("HnswGraph", "vectors", size, MemoryReport.refArray(vectors.length) +
+                  size * MemoryReport.array(dim, 4));
+            r.add("HnswGraph", "links", size, linkBytes);
+            r.note("HnswGraph", String.format("%d nodes of dimension %d, %d layers, %.1f links per node on layer 0",
+                                              size, dim, topLevel + 1, size == 0 ? 0.0 : (double) degree / size));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Persistence
+     */
+
+    // write the parameters, vectors and links to out
+    public void write(DataOutputStream out) throws IOException {
+        lock.readLock().lock();
+        try {
+            out.writeInt(dim);
+            out.writeInt(M);
+            out.writeInt(efConstruction);
+            out.writeInt(size);
+            out.writeInt(entry);
+            out.writeInt(topLevel);
+            for(int node = 0; node < size; node++) {
+                for(float x : vectors[node])
+                    out.writeFloat(x);
+                out.writeInt(links[node].length);
+                for(int[] l : links[node]) {
+                    out.writeInt(l[0]);
+                    for(int i = 1; i <= l[0]; i++)
+                        out.writeInt(l[i]);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // read a graph written by write(); seed only affects nodes added afterwards
+    public static HnswGraph read(DataInputStream in, long seed) throws IOException {
+        HnswGraph g = new HnswGraph(in.readInt(), in.readInt(), in.readInt(), seed);
+        int n = in.readInt();
+        g.entry = in.readInt();
+        g.topLevel = in.readInt();
+        g.grow(n);
+        for(int node = 0; node < n; node++) {
+            float[] v = new float[g.dim];
+            for(int i = 0; i < v.length; i++)
+                v[i] = in.readFloat();
+            g.vectors[node] = v;
+            g.links[node] = new int[in.readInt()][];
+            for(int l = 0; l < g.links[node].length; l++) {
+                int count = in.readInt();
+                int[] ls = new int[1 + g.maxLinks(l) + 1];
+                if(count > g.maxLinks(l))
+                    throw new IOException("corrupt graph: node " + node + " has " + count + " links");
+                ls[0] = count;
+                for(int i = 1; i <= count; i++)
+                    ls[i] = in.readInt();
+                g.links[node][l] = ls;
+            }
+        }
+        g.size = n;
+        return g;
+    }
+
+
+    // decides which nodes a search may return
+    public interface NodeFilter {
+        boolean accept(int node);
+    }
+
+    // a node and its similarity to the vector searched for
+    public static class Candidate {
+        static final Comparator<Candidate> MOST_SIMILAR_FIRST = new Comparator<Candidate>() {
+            public int compare(Candidate a, Candidate b) {
+                return Float.compare(b.similarity, a.similarity);
+            }
+        };
+        static final Comparator<Candidate> LEAST_SIMILAR_FIRST = new Comparator<Candidate>() {
+            public int compare(Candidate a, Candidate b) {
+                return Float.compare(a.similarity, b.similarity);
+            }
+        };
+
+        public final int node;
+        public final float similarity;
+
+        Candidate(int node, float similarity) {
+            this.node = node;
+            this.similarity = similarity;
+        }
+    }
+
+    // set of visited nodes, reused across searches on a thread: a node is
+    // visited if its stamp equals the current one
+    private static class Visited {
+        private int[] stamps = new int[0];
+        private int current;
+
+        void clear(int n) {
+            if(stamps.length < n)
+                stamps = new int[Math.max(n, stamps.length * 2)];
+            if(++current == 0) {                 // wrapped around, start over
+                Arrays.fill(stamps, 0);
+                current = 1;
+            }
+        }
+
+        // false if node was already visited
+        boolean add(int node) {
+            if(stamps[node] == current)
+                return false;
+            stamps[node] = current;
+            return true;
+        }
+    }
+}
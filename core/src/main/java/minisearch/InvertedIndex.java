@@ -0,0 +1,572 @@
+/*
+ * InvertedIndex.java
+ *
+ * An inverted index over the articles, with the title and the body kept
+ * as separate fields. For each field, every term maps to its postings: the
+ * ids of the documents containing it and how often it occurs in each. Each
+ * document also stores the length (norm) of its term frequency vector per
+ * field, so the cosine similarity between a phrase and any field can be
+ * computed from the postings of the phrase's terms alone, without
+ * re-reading the article. Terms are split as in TermFrequencyTable and
+ * blacklisted terms are not indexed, so body scores match
+ * TermFrequencyTable.cosineSimilarity exactly.
+ *
+ * Like ArticleTable, the index can be read by any number of threads while
+ * one thread at a time adds or removes documents (callers serialize
+ * writers, see SearchEngine). Postings lists are immutable and replaced
+ * whole. A document only becomes visible once all its postings are in
+ * place, and becomes invisible before they are taken out, so readers
+ * never see half of a document.
+ *
+ * The ids of removed documents are given to the next documents added, so
+ * ids stay below the largest number of documents indexed at once and
+ * per-document arrays (see maxDocId()) do not grow with every change. A
+ * reader that is still working through postings read before such a
+ * change could meet the new document under its predecessor's id, so
+ * every document also gets a serial number that only grows: readers note
+ * nextSerial() before they read any postings and skip documents whose
+ * serial is at or above it.
+ */
+
+package minisearch;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class InvertedIndex {
+
+    public static final int BODY = 0;
+    public static final int TITLE = 1;
+    public static final String[] FIELD_NAMES = { "body", "title" };
+
+    private final Field[] fields = { new Field(), new Field() };
+    private final Map<String, Integer> ids = new ConcurrentHashMap<String, Integer>();  // title -> doc id
+
+    // doc id -> document, null for removed ids. Elements are written before
+    // the volatile field itself is re-assigned, which publishes them to
+    // readers that read the field afterwards.
+    private volatile Doc[] docs = new Doc[1024];
+    private int nextId;                          // writers only: one more than the largest id in use
+    private final BitSet free = new BitSet();    // writers only: ids below nextId not in use
+    private long nextSerial = 1;                 // writers only
+    private volatile int idLimit;                // nextId as of the last change, see maxDocId()
+    private volatile long published = 1;         // nextSerial as of the last publish, see nextSerial()
+    private volatile int live;                   // number of documents in the index
+
+    // add an article under a free id; returns the id, or -1 if its title is already indexed
+    public int add(Article a) {
+        long start = SearchMetrics.start();
+        if(ids.containsKey(a.getTitle()))
+            return -1;
+
+        Doc d = build(newId(0), a);
+        for(int f = 0; f < fields.length; f++) {
+            for(int i = 0; i < d.terms[f].length; i++)
+                fields[f].append(d.terms[f][i], d.id, d.freqs[f][i], d.freqs[f][i] / d.norms[f]);
+            fields[f].count(d.lengths[f], 1);
+        }
+        publish(new Doc[] { d }, 1);
+        SearchMetrics.stop(SearchMetrics.Phase.INDEX, start);
+        return d.id;
+    }
+
+    // add many articles at once. Each term's postings are replaced once for
+    // the whole batch instead of once per article, and the new documents all
+    // become visible together. Returns their ids, -1 for titles already indexed
+    public int[] addAll(List<Article> articles) {
+        long start = SearchMetrics.start();
+        int[] result = new int[articles.size()];
+        Doc[] batch = new Doc[articles.size()];
+        Set<String> titles = new HashSet<String>();
+        int n = 0, id = 0;
+        for(int j = 0; j < articles.size(); j++) {
+            Article a = articles.get(j);
+            if(ids.containsKey(a.getTitle()) || !titles.add(a.getTitle())) {
+                result[j] = -1;
+                continue;
+            }
+            batch[n] = build(id = newId(id), a);   // in increasing order
+            result[j] = batch[n++].id;
+            id++;
+        }
+
+        for(int f = 0; f < fields.length; f++) {
+            // group the new (doc, tf) pairs by term; ids increase, so they stay sorted
+            Map<String, Pending> pending = new HashMap<String, Pending>();
+            for(int j = 0; j < n; j++) {
+                Doc d = batch[j];
+                for(int i = 0; i < d.terms[f].length; i++) {
+                    Pending p = pending.get(d.terms[f][i]);
+                    if(p == null)
+                        pending.put(d.terms[f][i], p = new Pending());
+                    p.add(d.id, d.freqs[f][i], d.freqs[f][i] / d.norms[f]);
+                }
+                fields[f].count(d.lengths[f], 1);
+            }
+            for(Map.Entry<String, Pending> e : pending.entrySet())
+                fields[f].appendAll(e.getKey(), e.getValue());
+        }
+        publish(batch, n);
+        SearchMetrics.stop(SearchMetrics.Phase.INDEX, start);
+        return result;
+    }
+
+    // term vectors, norms and lengths of a under the given id
+    private Doc build(int id, Article a) {
+        double[] norms = new double[fields.length];
+        int[] lengths = new int[fields.length];
+        String[][] terms = new String[fields.length][];
+        int[][] freqs = new int[fields.length][];
+        String[] text = { a.getBody(), a.getTitle() };
+
+        for(int f = 0; f < fields.length; f++) {
+            Map<String, Integer> tf = termFrequencies(text[f]);
+            terms[f] = new String[tf.size()];
+            freqs[f] = new int[tf.size()];
+            double sum = 0;
+            int i = 0;
+            for(Map.Entry<String, Integer> e : tf.entrySet()) {
+                int n = e.getValue();
+                terms[f][i] = e.getKey();
+                freqs[f][i++] = n;
+                sum += (double) n * n;
+                lengths[f] += n;
+            }
+            norms[f] = Math.sqrt(sum);
+        }
+        return new Doc(id, nextSerial++, a, norms, lengths, terms, freqs);
+    }
+
+    // the lowest id not in use from from on: one a removed document gave up,
+    // or else the next new one
+    private int newId(int from) {
+        int id = free.nextSetBit(from);
+        if(id < 0)
+            return nextId++;
+        free.clear(id);
+        return id;
+    }
+
+    // make the first n documents of batch visible, once all their postings are in place
+    private void publish(Doc[] batch, int n) {
+        Doc[] ds = docs;
+        if(nextId > ds.length)
+            ds = Arrays.copyOf(ds, Math.max(nextId, ds.length * 2));
+        for(int j = 0; j < n; j++)
+            ds[batch[j].id] = batch[j];
+        docs = ds;                               // publish
+        idLimit = nextId;
+        published = nextSerial;
+        for(int j = 0; j < n; j++)
+            ids.put(batch[j].article.getTitle(), batch[j].id);
+        live += n;
+    }
+
+    // remove the article with this title; returns false if it was not indexed
+    public boolean remove(String title) {
+        return removeAll(Collections.singletonList(title)) == 1;
+    }
+
+    // remove the articles with these titles, replacing each term's postings
+    // once; returns how many were indexed
+    public int removeAll(Collection<String> titles) {
+        List<Doc> gone = new ArrayList<Doc>();
+        Doc[] ds = docs;
+        for(String title : titles) {
+            Integer id = ids.remove(title);
+            if(id != null) {
+                gone.add(ds[id]);
+                ds[id] = null;
+            }
+        }
+        if(gone.isEmpty())
+            return 0;
+        docs = ds;                               // hide the documents before touching their postings
+        live -= gone.size();
+        Collections.sort(gone, new Comparator<Doc>() {      // postings are in id order
+            public int compare(Doc a, Doc b) {
+                return Integer.compare(a.id, b.id);
+            }
+        });
+
+        for(int f = 0; f < fields.length; f++) {
+            Map<String, Pending> dropped = new HashMap<String, Pending>();
+            for(Doc d : gone) {
+                for(String term : d.terms[f]) {
+                    Pending p = dropped.get(term);
+                    if(p == null)
+                        dropped.put(term, p = new Pending());
+                    p.add(d.id, 0, 0);
+                }
+                fields[f].count(d.lengths[f], -1);
+            }
+            for(Map.Entry<String, Pending> e : dropped.entrySet())
+                fields[f].dropAll(e.getKey(), e.getValue());
+        }
+
+        // the ids are free once no postings refer to them
+        for(Doc d : gone)
+            free.set(d.id);
+        while(nextId > 0 && free.get(nextId - 1))
+            free.clear(--nextId);
+        idLimit = nextId;
+        return gone.size();
+    }
+
+    // the live document with this id, or null
+    public Doc doc(int id) {
+        Doc[] ds = docs;
+        return id >= 0 && id < ds.length ? ds[id] : null;
+    }
+
+    // id of the document with this title, or -1
+    public int docId(String title) {
+        Integer id = ids.get(title);
+        return id == null ? -1 : id;
+    }
+
+    // one more than the largest id in use, for sizing per-document arrays.
+    // Postings read after this may hold larger ids, of documents added since
+    public int maxDocId() {
+        return idLimit;
+    }
+
+    // serial number of the next document to be added: documents added after
+    // this is read have serials at or above it (see Doc.serial)
+    public long nextSerial() {
+        return published;
+    }
+
+    public int size() {
+        return live;
+    }
+
+    // postings of term in field, or null if no document contains it
+    public Postings postings(int field, String term) {
+        return fields[field].postings.get(term);
+    }
+
+    // number of documents with at least one indexed term in field
+    public int docCount(int field) {
+        return fields[field].docCount;
+    }
+
+    // average number of indexed terms per document in field
+    public double averageLength(int field) {
+        Field f = fields[field];
+        return f.docCount == 0 ? 0.0 : (double) f.totalLength / f.docCount;
+    }
+
+    // number of distinct terms in field
+    public int termCount(int field) {
+        return fields[field].postings.size();
+    }
+
+    // count the non-blacklisted terms of s
+    static Map<String, Integer> termFrequencies(String s) {
+        Map<String, Integer> tf = new HashMap<String, Integer>();
+        for(String term : TermFrequencyTable.terms(s)) {
+            if(!TermFrequencyTable.isBlackListed(term))
+                tf.merge(term, 1, Integer::sum);
+        }
+        return tf;
+    }
+
+
+    // add the dictionaries, postings and stored documents to r
+    void footprint(MemoryReport r) {
+        Set<String> keys = Collections.newSetFromMap(new IdentityHashMap<String, Boolean>());
+        for(int f = 0; f < fields.length; f++) {
+            long terms = 0, postings = 0, dictionary = 0, lists = 0;
+            for(Map.Entry<String, Postings> e : fields[f].postings.entrySet()) {
+                Postings p = e.getValue();
+                keys.add(e.getKey());
+                terms++;
+                postings += p.size;
+                dictionary += MemoryReport.string(e.getKey());
+                lists += MemoryReport.object(2, 16) + MemoryReport.array(p.docIds.length, 4) +
+                         MemoryReport.array(p.freqs.length, 4);
+            }
+            dictionary += MemoryReport.mapEntries(terms) + MemoryReport.mapTable(terms);
+            r.add("InvertedIndex", FIELD_NAMES[f] + " dictionary", terms, dictionary);
+            r.add("InvertedIndex", FIELD_NAMES[f] + " postings", postings, lists);
+        }
+
+        // term strings a document shares with a dictionary were counted there
+        Doc[] ds = docs;
+        long n = 0, documents = MemoryReport.refArray(ds.length), vectors = 0;
+        for(Doc d : ds) {
+            if(d == null)
+                continue;
+            n++;
+            documents += MemoryReport.object(5, 4) + MemoryReport.array(fields.length, 8) +
+                         MemoryReport.array(fields.length, 4);
+            vectors += 2 * MemoryReport.refArray(fields.length);
+            for(int f = 0; f < fields.length; f++) {
+                vectors += MemoryReport.refArray(d.terms[f].length) + MemoryReport.array(d.freqs[f].length, 4);
+                for(String t : d.terms[f]) {
+                    if(!keys.contains(t))
+                        vectors += MemoryReport.string(t);
+                }
+            }
+        }
+        r.add("InvertedIndex", "documents", n, documents);
+        r.add("InvertedIndex", "document term vectors", n, vectors);
+
+        long titles = MemoryReport.mapEntries(ids.size()) + MemoryReport.mapTable(ids.size());
+        for(String t : ids.keySet())
+            titles += MemoryReport.string(t) + MemoryReport.boxed(4);
+        r.add("InvertedIndex", "title -> id map", ids.size(), titles);
+    }
+
+    // postings and statistics for one field
+    private static class Field {
+        final ConcurrentHashMap<String, Postings> postings = new ConcurrentHashMap<String, Postings>();
+        long totalLength;                        // sum of document lengths
+        int docCount;                            // documents with a non-empty field
+
+        // a new id usually goes at the end; one given up by a removed document
+        // is merged in. weight is tf divided by the document's norm, see Postings.maxWeight
+        void append(String term, int id, int tf, double weight) {
+            Postings p = postings.get(term);
+            postings.put(term, p == null ? new Postings(id, tf, weight) : p.plus(id, tf, weight));
+        }
+
+        // add several (id, tf) pairs, in increasing id order, at once
+        void appendAll(String term, Pending add) {
+            Postings p = postings.get(term);
+            postings.put(term, p == null ? Postings.of(add) : p.plusAll(add));
+        }
+
+        // remove the ids in drop (in increasing order) from term's postings
+        void dropAll(String term, Pending drop) {
+            Postings p = postings.get(term);
+            if(p == null)
+                return;
+            Postings q = p.minusAll(drop);
+            if(q.size() == 0)
+                postings.remove(term);
+            else
+                postings.put(term, q);
+        }
+
+        // add (sign 1) or take away (sign -1) a document of this length
+        void count(int length, int sign) {
+            totalLength += sign * length;
+            if(length > 0)
+                docCount += sign;
+        }
+    }
+
+    // (doc id, tf) pairs collected for one term during a batch, with the largest weight
+    private static class Pending {
+        int[] docIds = new int[4];
+        int[] freqs = new int[4];
+        int size;
+        double maxWeight;
+
+        void add(int id, int tf, double weight) {
+            if(size == docIds.length) {
+                docIds = Arrays.copyOf(docIds, size * 2);
+                freqs = Arrays.copyOf(freqs, size * 2);
+            }
+            docIds[size] = id;
+            freqs[size++] = tf;
+            maxWeight = Math.max(maxWeight, weight);
+        }
+    }
+
+    // an indexed article: its id and serial number, and per field its term
+    // vector with that vector's norm and length
+    public static class Doc {
+        public final int id;
+        public final long serial;                // order in which documents were added, from 1
+        public final Article article;
+        private final double[] norms;
+        private final int[] lengths;
+        private final String[][] terms;
+        private final int[][] freqs;
+
+        Doc(int id, long serial, Article article, double[] norms, int[] lengths, String[][] terms, int[][] freqs) {
+            this.id = id;
+            this.serial = serial;
+            this.article = article;
+            this.norms = norms;
+            this.lengths = lengths;
+            this.terms = terms;
+            this.freqs = freqs;
+        }
+
+        // number of distinct terms in field
+        public int termCount(int field) {
+            return terms[field].length;
+        }
+
+        public String term(int field, int i) {
+            return terms[field][i];
+        }
+
+        public int tf(int field, int i) {
+            return freqs[field][i];
+        }
+
+        public double norm(int field) {
+            return norms[field];
+        }
+
+        public int length(int field) {
+            return lengths[field];
+        }
+    }
+
+    // immutable list of (doc id, term frequency) pairs, in increasing id order.
+    // plus() may fill spare capacity at the end of the arrays it shares with
+    // older versions; they never read past their own size, so they are unaffected
+    public static class Postings {
+        private final int[] docIds;
+        private final int[] freqs;
+        private final int size;
+        private final int maxTf;
+        private final double maxWeight;
+
+        Postings(int id, int tf, double weight) {
+            this(new int[] { id }, new int[] { tf }, 1, tf, weight);
+        }
+
+        private Postings(int[] docIds, int[] freqs, int size, int maxTf, double maxWeight) {
+            this.docIds = docIds;
+            this.freqs = freqs;
+            this.size = size;
+            this.maxTf = maxTf;
+            this.maxWeight = maxWeight;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int doc(int i) {
+            return docIds[i];
+        }
+
+        public int tf(int i) {
+            return freqs[i];
+        }
+
+        // position of the first posting with a doc id of at least id (size() if none)
+        public int find(int id) {
+            int lo = 0, hi = size;
+            while(lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if(docIds[mid] < id)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+
+        // largest term frequency in the list
+        public int maxTf() {
+            return maxTf;
+        }
+
+        // an upper bound on tf / norm over the documents in the list, i.e. on how
+        // much this term can add to any document's length-normalized score.
+        // removals leave it as it was, which keeps it a valid bound
+        public double maxWeight() {
+            return maxWeight;
+        }
+
+        // only called by the single writer, on the newest version of the list
+        Postings plus(int id, int tf, double weight) {
+            int[] d = docIds;
+            int[] f = freqs;
+            if(size > 0 && id < d[size - 1]) {  // a reused id: copy, leaving a gap for it
+                int at = find(id);
+                d = new int[size + 1];
+                f = new int[size + 1];
+                System.arraycopy(docIds, 0, d, 0, at);
+                System.arraycopy(freqs, 0, f, 0, at);
+                System.arraycopy(docIds, at, d, at + 1, size - at);
+                System.arraycopy(freqs, at, f, at + 1, size - at);
+                d[at] = id;
+                f[at] = tf;
+                return new Postings(d, f, size + 1, Math.max(maxTf, tf), Math.max(maxWeight, weight));
+            }
+            if(size == d.length) {
+                d = Arrays.copyOf(d, size + (size >> 1) + 1);
+                f = Arrays.copyOf(f, d.length);
+            }
+            d[size] = id;
+            f[size] = tf;
+            return new Postings(d, f, size + 1, Math.max(maxTf, tf), Math.max(maxWeight, weight));
+        }
+
+        // a list of the pairs in p
+        static Postings of(Pending p) {
+            int max = 0;
+            for(int i = 0; i < p.size; i++)
+                max = Math.max(max, p.freqs[i]);
+            return new Postings(Arrays.copyOf(p.docIds, p.size), Arrays.copyOf(p.freqs, p.size),
+                                p.size, max, p.maxWeight);
+        }
+
+        // only called by the single writer, on the newest version of the list
+        Postings plusAll(Pending p) {
+            if(size > 0 && p.size > 0 && p.docIds[0] < docIds[size - 1])
+                return merge(p);                 // some ids are reused
+            int n = size + p.size;
+            int[] d = docIds;
+            int[] f = freqs;
+            if(n > d.length) {
+                d = Arrays.copyOf(d, n + (n >> 1));
+                f = Arrays.copyOf(f, d.length);
+            }
+            System.arraycopy(p.docIds, 0, d, size, p.size);
+            System.arraycopy(p.freqs, 0, f, size, p.size);
+            int max = maxTf;
+            for(int i = 0; i < p.size; i++)
+                max = Math.max(max, p.freqs[i]);
+            return new Postings(d, f, n, max, Math.max(maxWeight, p.maxWeight));
+        }
+
+        // this list with the pairs in p merged in, in new arrays
+        private Postings merge(Pending p) {
+            int n = size + p.size;
+            int[] d = new int[n];
+            int[] f = new int[n];
+            int i = 0, j = 0, max = maxTf;
+            for(int k = 0; k < n; k++) {
+                if(j == p.size || (i < size && docIds[i] < p.docIds[j])) {
+                    d[k] = docIds[i];
+                    f[k] = freqs[i++];
+                } else {
+                    d[k] = p.docIds[j];
+                    f[k] = p.freqs[j++];
+                    max = Math.max(max, f[k]);
+                }
+            }
+            return new Postings(d, f, n, max, Math.max(maxWeight, p.maxWeight));
+        }
+
+        // this list without the ids in p, which are in increasing order
+        Postings minusAll(Pending p) {
+            int[] d = new int[size];
+            int[] f = new int[size];
+            int n = 0, j = 0, m = 0;
+            for(int i = 0; i < size; i++) {
+                while(j < p.size && p.docIds[j] < docIds[i])
+                    j++;
+                if(j < p.size && p.docIds[j] == docIds[i])
+                    continue;
+                d[n] = docIds[i];
+                f[n++] = freqs[i];
+                m = Math.max(m, freqs[i]);
+            }
+            if(n == size)
+                return this;
+            return new Postings(d, f, n, m, maxWeight);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Json.java
+ *
+ * Small helpers for writing JSON text by hand, so the batch driver and
+ * the HTTP server can emit JSON without pulling in a library, and a small
+ * parser for the request bodies the server accepts. parse() returns
+ * Map (objects, in key order), List, String, Double, Boolean or null.
+ */
+
+package minisearch;
+
+import java.util.*;
+
+public class Json {
+
+    private Json() { }
+
+    // returns s as a quoted JSON string, escaping quotes, backslashes and control characters
+    public static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+        for(int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch(c) {
+                case '"':  sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if(c < 0x20)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+            }
+        }
+        sb.append('"');
+        return sb.toString();
+    }
+
+    // JSON has no NaN or infinity, so those are written as null
+    public static String number(double d) {
+        if(Double.isNaN(d) || Double.isInfinite(d))
+            return "null";
+        return Double.toString(d);
+    }
+
+    // parse a complete JSON document; throws IllegalArgumentException on malformed input
+    public static Object parse(String text) {
+        Parser p = new Parser(text);
+        Object v = p.value();
+        p.skipSpace();
+        if(p.pos != text.length())
+            throw p.error("trailing characters");
+        return v;
+    }
+
+    // parse text that must be a JSON object
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> parseObject(String text) {
+        Object v = parse(text);
+        if(!(v instanceof Map))
+            throw new IllegalArgumentException("expected a JSON object");
+        return (Map<String, Object>) v;
+    }
+
+
+    // recursive descent over the text, pos is the next unread character
+    private static class Parser {
+        private final String s;
+        private int pos;
+
+        public Parser(String s) {
+            this.s = s;
+        }
+
+        public Object value() {
+            skipSpace();
+            if(pos >= s.length())
+                throw error("unexpected end of input");
+            char c = s.charAt(pos);
+            switch(c) {
+                case '{': return object();
+                case '[': return array();
+                case '"': return string();
+                case 't': literal("true");  return Boolean.TRUE;
+                case 'f': literal("false"); return Boolean.FALSE;
+                case 'n': literal("null");  return null;
+                default:
+                    if(c == '-' || (c >= '0' && c <= '9'))
+                        return number();
+                    throw error("unexpected character '" + c + "'");
+            }
+        }
+
+        private Map<String, Object> object() {
+            Map<String, Object> m = new LinkedHashMap<String, Object>();
+            pos++;                                   // skip {
+            skipSpace();
+            if(peek() == '}') {
+                pos++;
+                return m;
+            }
+            while(true) {
+                skipSpace();
+                if(peek() != '"')
+                    throw error("expected a key");
+                String key = string();
+                skipSpace();
+                expect(':');
+                m.put(key, value());
+                skipSpace();
+                if(peek() == ',')
+                    pos++;
+                else {
+                    expect('}');
+                    return m;
+                }
+            }
+        }
+
+        private List<Object> array() {
+            List<Object> l = new ArrayList<Object>();
+            pos++;                                   // skip [
+            skipSpace();
+            if(peek() == ']') {
+                pos++;
+                return l;
+            }
+            while(true) {
+                l.add(value());
+                skipSpace();
+                if(peek() == ',')
+                    pos++;
+                else {
+                    expect(']');
+                    return l;
+                }
+            }
+        }
+
+        private String string() {
+            StringBuilder sb = new StringBuilder();
+            pos++;                                   // skip opening quote
+            while(true) {
+                if(pos >= s.length())
+                    throw error("unterminated string");
+                char c = s.charAt(pos++);
+                if(c == '"')
+                    return sb.toString();
+                if(c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if(pos >= s.length())
+                    throw error("unterminated escape");
+                char e = s.charAt(pos++);
+                switch(e) {
+                    case '"':  sb.append('"'); break;
+                    case '\\': sb.append('\\'); break;
+                    case '/':  sb.append('/'); break;
+                    case 'b':  sb.append('\b'); break;
+                    case 'f':  sb.append('\f'); break;
+                    case 'n':  sb.append('\n'); break;
+                    case 'r':  sb.append('\r'); break;
+                    case 't':  sb.append('\t'); break;
+                    case 'u':
+                        if(pos + 4 > s.length())
+                            throw error("bad unicode escape");
+                        try {
+                            sb.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException ex) {
+                            throw error("bad unicode escape");
+                        }
+                        pos += 4;
+                        break;
+                    default:
+                        throw error("bad escape '\\" + e + "'");
+                }
+            }
+        }
+
+        private Double number() {
+            int start = pos;
+            while(pos < s.length() && "+-0123456789.eE".indexOf(s.charAt(pos)) >= 0)
+                pos++;
+            try {
+                return Double.valueOf(s.substring(start, pos));
+            } catch (NumberFormatException e) {
+                throw error("bad number");
+            }
+        }
+
+        private void literal(String word) {
+            if(!s.startsWith(word, pos))
+                throw error("unexpected token");
+            pos += word.length();
+        }
+
+        private void expect(char c) {
+            if(peek() != c)
+                throw error("expected '" + c + "'");
+            pos++;
+        }
+
+        private char peek() {
+            return pos < s.length() ? s.charAt(pos) : 0;
+        }
+
+        void skipSpace() {
+            while(pos < s.length() && Character.isWhitespace(s.charAt(pos)))
+                pos++;
+        }
+
+        IllegalArgumentException error(String msg) {
+            return new IllegalArgumentException("bad JSON at " + pos + ": " + msg);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * LatencyHistogram.java
+ *
+ * A fixed-size, log-linear histogram of nanosecond durations in the style
+ * of HdrHistogram: every power of two is split into 16 equal sub-buckets,
+ * so any recorded value is reported within about 6% of its true value.
+ * Recording is a couple of shifts and an atomic increment, with no
+ * allocation, and is safe from any number of threads.
+ */
+
+package minisearch;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;                     // 16 sub-buckets per power of two
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB;  // enough for any positive long
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    // add one observation of the given duration
+    public void record(long nanos) {
+        if(nanos < 0)
+            nanos = 0;
+        counts.incrementAndGet(index(nanos));
+        total.incrementAndGet();
+
+        long m = max.get();
+        while(nanos > m && !max.compareAndSet(m, nanos))
+            m = max.get();
+    }
+
+    public long count() {
+        return total.get();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    // value at or below which p percent of the observations fall (0 if empty)
+    public long percentile(double p) {
+        long n = total.get();
+        if(n == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(p / 100.0 * n));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if(seen >= rank)
+                return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for(int i = 0; i < BUCKETS; i++)
+            counts.set(i, 0);
+        total.set(0);
+        max.set(0);
+    }
+
+    // values below 16 get a bucket each; above that, the top bit picks the
+    // power of two and the next four bits pick the sub-bucket within it
+    private static int index(long v) {
+        if(v < SUB)
+            return (int) v;
+        int e = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) (v >>> (e - SUB_BITS)) & (SUB - 1);
+        return (e - SUB_BITS + 1) * SUB + sub;
+    }
+
+    // largest value that maps to bucket i
+    private static long upperBound(int i) {
+        if(i < SUB)
+            return i;
+        int e = i / SUB + SUB_BITS - 1;
+        long sub = i % SUB;
+        return ((SUB + sub + 1) << (e - SUB_BITS)) - 1;
+    }
+}
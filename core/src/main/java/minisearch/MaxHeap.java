@@ -3,6 +3,11 @@
  * 
  * Class for maxheap of Articles and doubles, for use with cosine similarity calculations in MiniGoogle.java.
  */
+
+package minisearch;
+
+import java.util.NoSuchElementException;
+
 public class MaxHeap {
     
     private final int SIZE = 10;                          // initial size
@@ -52,6 +57,14 @@ public class MaxHeap {
         return (next);
     }
     
+    // returns the largest cosine similarity without removing it; call before getMax
+    // to find the value belonging to the article it returns
+    public double maxKey() {
+        if(isEmpty())
+            throw new NoSuchElementException("heap is empty");
+        return A[0];
+    }
+    
     // insert cosine sim and Article into A and B at next available location
     // and fix any violations of heap property on path up to root
     public void insert(double k, Article a) {
@@ -0,0 +1,261 @@
+/*
+ * MemoryReport.java
+ *
+ * Estimates how much heap each structure behind a SearchEngine takes, from
+ * the structures' own sizes (number of nodes, array lengths, string
+ * lengths) rather than a heap dump, so it is cheap enough to run on a live
+ * server. Each structure adds its parts with add() and anything else worth
+ * knowing (bucket occupancy, bytes left behind by removed articles) with
+ * note().
+ *
+ * Sizes follow the HotSpot object layout: a 12-byte object header and
+ * 4-byte references with compressed oops (16 and 8 without), 16-byte array
+ * headers, everything rounded up to 8 bytes. Strings are counted as the
+ * String object plus its byte[] (one byte per character when all fit in
+ * Latin-1). Objects shared between structures are counted once, where
+ * they are owned; each decoded title kept as a map key is its own String.
+ *
+ * usage: java minisearch.MemoryReport [-db dir]
+ */
+
+package minisearch;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+public class MemoryReport {
+
+    static final boolean COMPRESSED = compressedOops();
+    static final int HEADER = COMPRESSED ? 12 : 16;
+    static final int ARRAY_HEADER = 16;
+    static final int REF = COMPRESSED ? 4 : 8;
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private final Map<String, List<String>> notes = new LinkedHashMap<String, List<String>>();
+    private int articles;
+
+    // the footprint of E and the structures it holds
+    public static MemoryReport of(SearchEngine E) {
+        MemoryReport r = new MemoryReport();
+        E.footprint(r);
+        return r;
+    }
+
+    // count bytes for count instances of part of structure
+    public void add(String structure, String part, long count, long bytes) {
+        entries.add(new Entry(structure, part, count, bytes));
+    }
+
+    public void note(String structure, String text) {
+        List<String> l = notes.get(structure);
+        if(l == null)
+            notes.put(structure, l = new ArrayList<String>());
+        l.add(text);
+    }
+
+    // the number of articles the per-article averages are taken over
+    void setArticles(int n) {
+        articles = n;
+    }
+
+    public int getArticles() {
+        return articles;
+    }
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    public long getTotalBytes() {
+        long total = 0;
+        for(Entry e : entries)
+            total += e.bytes;
+        return total;
+    }
+
+    // bytes of all parts of structure
+    public long getBytes(String structure) {
+        long total = 0;
+        for(Entry e : entries) {
+            if(e.structure.equals(structure))
+                total += e.bytes;
+        }
+        return total;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-22s %-24s %10s %12s %12s%n", "structure", "part", "count", "bytes", "per article"));
+        String last = null;
+        for(Entry e : entries) {
+            if(last != null && !last.equals(e.structure))
+                subtotal(sb, last);
+            last = e.structure;
+            sb.append(String.format("%-22s %-24s %10d %12s %12s%n", e.structure, e.part, e.count,
+                                    human(e.bytes), perArticle(e.bytes)));
+        }
+        if(last != null)
+            subtotal(sb, last);
+        sb.append(String.format("%-22s %-24s %10s %12s %12s%n", "total", "", "", human(getTotalBytes()),
+                                perArticle(getTotalBytes())));
+        for(Map.Entry<String, List<String>> e : notes.entrySet()) {
+            for(String text : e.getValue())
+                sb.append(e.getKey()).append(": ").append(text).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"articles\":").append(articles).append(",\"total_bytes\":").append(getTotalBytes())
+          .append(",\"parts\":[");
+        for(int i = 0; i < entries.size(); i++) {
+            Entry e = entries.get(i);
+            if(i > 0)
+                sb.append(',');
+            sb.append("{\"structure\":").append(Json.quote(e.structure))
+              .append(",\"part\":").append(Json.quote(e.part))
+              .append(",\"count\":").append(e.count)
+              .append(",\"bytes\":").append(e.bytes).append('}');
+        }
+        sb.append("],\"notes\":{");
+        int i = 0;
+        for(Map.Entry<String, List<String>> e : notes.entrySet()) {
+            if(i++ > 0)
+                sb.append(',');
+            sb.append(Json.quote(e.getKey())).append(":[");
+            for(int j = 0; j < e.getValue().size(); j++)
+                sb.append(j > 0 ? "," : "").append(Json.quote(e.getValue().get(j)));
+            sb.append(']');
+        }
+        return sb.append("}}").toString();
+    }
+
+    /*
+     * Sizes
+     */
+
+    // an object with refs references and primitive fields of primitiveBytes in all
+    public static long object(int refs, int primitiveBytes) {
+        return align(HEADER + (long) refs * REF + primitiveBytes);
+    }
+
+    // an array of length elements of elementBytes each
+    public static long array(long length, int elementBytes) {
+        return align(ARRAY_HEADER + length * elementBytes);
+    }
+
+    public static long refArray(long length) {
+        return array(length, REF);
+    }
+
+    public static long string(String s) {
+        boolean latin1 = true;
+        for(int i = 0; i < s.length() && latin1; i++)
+            latin1 = s.charAt(i) <= 0xff;
+        return object(1, 4 + 1 + 1) + array(s.length(), latin1 ? 1 : 2);
+    }
+
+    // the entry objects of a HashMap or ConcurrentHashMap holding size mappings
+    public static long mapEntries(long size) {
+        return size * object(3, 4);
+    }
+
+    // the map object and its table, for size mappings at the default load factor
+    public static long mapTable(long size) {
+        long capacity = 16;
+        while(capacity * 3 / 4 < size)
+            capacity *= 2;
+        return object(6, 16) + refArray(capacity);
+    }
+
+    // a boxed Integer, Long or Double
+    public static long boxed(int primitiveBytes) {
+        return object(0, primitiveBytes);
+    }
+
+    /*
+     * Helper Methods
+     */
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    private static boolean compressedOops() {
+        try {
+            HotSpotDiagnosticMXBean b = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            return Boolean.parseBoolean(b.getVMOption("UseCompressedOops").getValue());
+        } catch (RuntimeException e) {
+            return true;                         // the default on heaps under 32 GB
+        }
+    }
+
+    private void subtotal(StringBuilder sb, String structure) {
+        long bytes = getBytes(structure);
+        sb.append(String.format("%-22s %-24s %10s %12s %12s%n", "", "(" + structure + ")", "", human(bytes),
+                                perArticle(bytes)));
+    }
+
+    private String perArticle(long bytes) {
+        return articles == 0 ? "-" : String.format("%.1f", (double) bytes / articles);
+    }
+
+    static String human(long bytes) {
+        if(bytes < 1024)
+            return bytes + " B";
+        if(bytes < 1024 * 1024)
+            return String.format("%.1f KB", bytes / 1024.0);
+        return String.format("%.1f MB", bytes / (1024.0 * 1024));
+    }
+
+
+    // bytes taken by count instances of one part of a structure
+    public static class Entry {
+        public final String structure;
+        public final String part;
+        public final long count;
+        public final long bytes;
+
+        Entry(String structure, String part, long count, long bytes) {
+            this.structure = structure;
+            this.part = part;
+            this.count = count;
+            this.bytes = bytes;
+        }
+    }
+
+    public static void main(String[] args) {
+        String dbPath = "articles/";
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].equals("-db") && i + 1 < args.length)
+                dbPath = args[++i];
+            else {
+                System.err.println("usage: java minisearch.MemoryReport [-db dir]");
+                System.exit(2);
+            }
+        }
+        Runtime rt = Runtime.getRuntime();
+        System.gc();
+        long before = rt.totalMemory() - rt.freeMemory();
+
+        DatabaseIterator db = new DatabaseIterator(dbPath);
+        ArticleTable T = new ArticleTable();
+        for(int i = 0; i < db.getNumArticles(); i++)
+            T.insert(db.next());
+        SearchEngine E = new SearchEngine(T);
+
+        long start = System.nanoTime();
+        MemoryReport r = of(E);
+        long nanos = System.nanoTime() - start;
+        System.gc();
+        long after = rt.totalMemory() - rt.freeMemory();
+
+        System.out.print(r);
+        System.out.println();
+        System.out.println(String.format("report computed in %.1f ms; heap grew by %s while loading %d articles " +
+                                         "(measured after GC, for comparison)", nanos / 1e6, human(after - before),
+                                         E.getTable().size()));
+    }
+}
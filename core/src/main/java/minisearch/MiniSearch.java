@@ -0,0 +1,243 @@
+/*
+ * MiniSearch.java
+ *
+ * A client program that uses the MaxHeap, DatabaseIterator, TermFrequencyTable, ArticleTable
+ * and Article classes, along with additional data
+ * structures, to allow a user to create, modify
+ * and interact with, including search through, an encyclopedia database.
+ * For replaying a file of queries without the menu, see BatchSearch.java.
+ *
+ * usage: java minisearch.MiniSearch [-watch]
+ *   -watch   keep picking up article files added to, changed in or
+ *            removed from the articles folder (see DirectoryWatcher)
+ *
+ * With -Dminisearch.wal=dir, articles added or removed are kept in a
+ * MutationLog in dir and are still there the next time it starts.
+ */
+
+package minisearch;
+
+import java.io.IOException;
+import java.util.*;
+
+public class MiniSearch {
+  
+  private static Article[] getArticleList(DatabaseIterator db) {
+    
+    // count how many articles are in the directory
+    int count = db.getNumArticles(); 
+    
+    // now create array
+    Article[] list = new Article[count];
+    for(int i = 0; i < count; ++i)
+      list[i] = db.next();
+    
+    return list; 
+  }
+  
+  private static DatabaseIterator setupDatabase(String path) {
+    return new DatabaseIterator(path);
+  }
+  
+  private static void addArticle(Scanner s, SearchEngine E) {
+    System.out.println();
+    System.out.println("Add an article");
+    System.out.println("==============");
+    
+    System.out.print("Enter article title: ");
+    String title = s.nextLine();
+    
+    System.out.println("You may now enter the body of the article.");
+    System.out.println("Press return two times when you are done.");
+    
+    StringBuilder body = new StringBuilder();
+    String line = "";
+    do {
+      line = s.nextLine();
+      body.append(line).append('\n');
+    } while (!line.equals(""));
+    
+    E.insert(new Article(title, body.toString()));
+  }
+  
+  
+  private static void removeArticle(Scanner s, SearchEngine E) {
+    System.out.println();
+    System.out.println("Remove an article");
+    System.out.println("=================");
+    
+    System.out.print("Enter article title: ");
+    String title = s.nextLine();
+    
+    
+    E.delete(title);
+  }
+  
+  // search for related articles using key phrase. 
+  private static void search(Scanner s, SearchEngine E) {
+    System.out.println();
+    System.out.println("Search by search phrase");
+    System.out.println("=======================");
+    
+    System.out.print("Enter search phrase: ");
+    String phrase = s.nextLine();
+    
+    // with a vector index (-Dminisearch.ann=true) the search is approximate
+    // and has no further pages, as on the server
+    SearchEngine.Hits hits = E.getVectorIndex() != null ? E.search(phrase, 3) : E.page(phrase, 0, 3);
+    int shown = 0;
+        
+    System.out.println();
+    
+    while(true) {
+      long start = SearchMetrics.start();
+      if(hits.isEmpty() && shown == 0) {
+        System.out.println("No articles found!"); 
+        //return; 
+      } else {
+          //print the next three
+          for(int i = 0; i < hits.size(); i++) {
+              shown++;
+              System.out.println((shown == 1 ? "Top match: " : "Hit #" + shown + ": ") +
+                                 "(Cosine similarity: " + hits.get(i).getScore() + ")\n\n" +
+                                 hits.get(i).getArticle() + "\n");
+          }
+          if(next(hits) == null)
+              System.out.println(hits instanceof SearchEngine.Page ?
+                                 "no more articles found! (" + ((SearchEngine.Page) hits).getTotal() + " in all)" :
+                                 "no more articles found!");
+      }
+      if(hits.isPartial())
+        System.out.println("(The search was cut short by its budget; these are the best found in time.)\n");
+      SearchMetrics.stop(SearchMetrics.Phase.RENDER, start);
+      
+      if(next(hits) == null)
+        break;
+      System.out.println("Enter m for more hits, or press return when finished reading.");
+      if(!s.nextLine().trim().equalsIgnoreCase("m"))
+        return;
+      hits = E.page(phrase, next(hits), 3);
+    }
+    
+    System.out.println();
+    System.out.println("Press return when finished reading.");
+    s.nextLine();
+  }
+  
+  // cursor for the page after hits, or null if there is none
+  private static String next(SearchEngine.Hits hits) {
+    return hits instanceof SearchEngine.Page ? ((SearchEngine.Page) hits).getNext() : null;
+  }
+  
+  // list the articles most similar to an existing one
+  private static void related(Scanner s, SearchEngine E) {
+    System.out.println();
+    System.out.println("Find related articles");
+    System.out.println("=====================");
+    
+    System.out.print("Enter article title: ");
+    String title = s.nextLine();
+    
+    List<SearchEngine.Hit> hits = E.related(title, 5);
+    System.out.println();
+    if(hits == null)
+      System.out.println("No article titled \"" + title + "\"!");
+    else if(hits.isEmpty())
+      System.out.println("No related articles found!");
+    else {
+      for(int i = 0; i < hits.size(); i++)
+        System.out.println("    " + (i + 1) + ". " + hits.get(i).getArticle().getTitle() +
+                           " (" + String.format("%.3f", hits.get(i).getScore()) + ")");
+    }
+    
+    System.out.println();
+    System.out.println("Press return when finished reading.");
+    s.nextLine();
+  }
+  
+  public static void main(String[] args) throws IOException {
+    Scanner user = new Scanner(System.in);
+    SearchMetrics.configure();
+    
+    String dbPath = "articles/";
+    
+    MutationLog log = MutationLog.configured();
+    ArticleTable T;
+    if(log != null) {
+      T = log.recover(dbPath);
+      System.out.println("Recovered " + T.size() + " articles from " + log.getDirectory() + ".");
+    } else {
+      DatabaseIterator db = setupDatabase(dbPath);
+      
+      System.out.println("Read " + db.getNumArticles() + 
+                         " articles from disk.");
+      
+      T = new ArticleTable(); 
+      Article[] A = getArticleList(db);
+      T.initialize(A);
+    }
+    SearchEngine E = new SearchEngine(T);
+    if(log != null)
+      E.setLog(log);
+    if(E.nearDuplicates() > 0)
+      System.out.println(E.nearDuplicates() + " near-duplicate articles " +
+                         (E.getDedupPolicy() == NearDuplicateDetector.Policy.COLLAPSE ? "left out." : "flagged (hidden from results)."));
+    if(args.length > 0 && args[0].equals("-watch")) {
+      new DirectoryWatcher(E, dbPath, 250).start();
+      System.out.println("Watching " + dbPath + " for changes.");
+    }
+    
+    int choice = -1;
+    do {
+      System.out.println();
+      System.out.println("Welcome to Mini-Search!");
+      System.out.println("=====================");
+      System.out.println("Make a selection from the " +
+                         "following options:");
+      System.out.println();
+      System.out.println("Manipulating the database");
+      System.out.println("-------------------------");
+      System.out.println("    1. add a new article");
+      System.out.println("    2. remove an article");
+      System.out.println();
+      System.out.println("Searching the database");
+      System.out.println("----------------------");
+      System.out.println("    3. search using search phrase");
+      System.out.println("    4. find articles related to an article");
+      System.out.println();
+      
+      System.out.print("Enter a selection (1-4, or 0 to quit): ");
+      
+      choice = user.nextInt();
+      user.nextLine();
+      
+      switch (choice) {
+        case 0:
+          return;
+          
+        case 1:
+          addArticle(user, E);
+          break;
+          
+        case 2:
+          removeArticle(user, E);
+          break;
+          
+        case 3:
+          search(user, E);
+          break;
+          
+        case 4:
+          related(user, E);
+          break;
+          
+        default:
+          break;
+      }
+      
+      choice = -1;
+      
+    } while (choice < 0 || choice > 4); 
+  } 
+}
+
@@ -0,0 +1,195 @@
+/*
+ * MoreLikeThis.java
+ *
+ * Finds the articles most similar to a given article ("more like this").
+ * Rather than computing the cosine similarity of the source against every
+ * other article, it takes the source's term vector stored in the
+ * InvertedIndex, keeps the few terms with the highest tf-idf weight, and
+ * runs them as a query against the body postings:
+ *
+ *     score(d) = sum over kept terms t of  w(t) * idf(t) * tf(t, d) / |d|
+ *
+ * where w(t) = tf(t, source) * idf(t), idf(t) = ln(1 + N / df(t)) and |d|
+ * is the norm of d's body vector; scores are divided by |w| at the end.
+ * They rank candidates for one source but, unlike search scores, are not
+ * cosines and can exceed 1.
+ *
+ * The query is pruned with the "max score" strategy: terms are processed
+ * in order of how much they can add to any document (their weight times
+ * Postings.maxWeight). Once the k-th best score so far is at least the
+ * most that all remaining terms together could add, no document not
+ * already seen can reach the top k, so the remaining postings only update
+ * existing candidates instead of creating new ones.
+ */
+
+package minisearch;
+
+import java.util.*;
+
+public class MoreLikeThis {
+
+    private final InvertedIndex index;
+    private int maxTerms = 25;                   // terms kept from the source article
+
+    public MoreLikeThis(InvertedIndex index) {
+        this.index = index;
+    }
+
+    public void setMaxTerms(int n) {
+        if(n < 1)
+            throw new IllegalArgumentException("maxTerms must be at least 1");
+        maxTerms = n;
+    }
+
+    // the k articles most like the one titled title, best first, not including
+    // it; returns null if there is no such article
+    public List<SearchEngine.Hit> related(String title, int k) {
+        if(k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        long before = index.nextSerial();        // skip documents added since (see InvertedIndex)
+        int src = index.docId(title);
+        InvertedIndex.Doc doc = index.doc(src);
+        if(doc == null)
+            return null;
+
+        // weight the source's body terms by tf-idf and keep the heaviest
+        final int F = InvertedIndex.BODY;
+        double N = Math.max(1, index.size());
+        int n = doc.termCount(F);
+        Term[] all = new Term[n];
+        int m = 0;
+        for(int i = 0; i < n; i++) {
+            InvertedIndex.Postings p = index.postings(F, doc.term(F, i));
+            if(p == null || p.size() < 2)        // only in the source, can't match anything else
+                continue;
+            double idf = Math.log(1 + N / p.size());
+            all[m++] = new Term(p, doc.tf(F, i) * idf, idf);
+        }
+        Arrays.sort(all, 0, m, Term.BY_WEIGHT);
+        Term[] terms = Arrays.copyOf(all, Math.min(m, maxTerms));
+
+        double wNorm = 0;
+        for(Term t : terms)
+            wNorm += t.weight * t.weight;
+        wNorm = Math.sqrt(wNorm);
+
+        // process in decreasing order of upper bound; rest[i] = sum of bounds after term i
+        Arrays.sort(terms, Term.BY_BOUND);
+        double[] rest = new double[terms.length];
+        for(int i = terms.length - 2; i >= 0; i--)
+            rest[i] = rest[i + 1] + terms[i + 1].bound;
+
+        int size = index.maxDocId();
+        double[] acc = new double[size];
+        double[] invNorm = new double[size];     // 1 / |d|, 0 for documents that are gone
+        boolean[] seen = new boolean[size];
+        int[] touched = new int[64];
+        int count = 0;
+        long postings = 0;
+        boolean open = true;                     // may new candidates still be added?
+
+        for(int j = 0; j < terms.length; j++) {
+            Term t = terms[j];
+            double factor = t.weight * t.idf;
+            InvertedIndex.Postings p = t.postings;
+            postings += p.size();
+            for(int i = 0; i < p.size(); i++) {
+                int d = p.doc(i);
+                if(d == src || d >= size)
+                    continue;
+                if(!seen[d]) {
+                    if(!open)
+                        continue;
+                    seen[d] = true;
+                    InvertedIndex.Doc c = index.doc(d);
+                    if(c != null && c.serial < before && c.norm(F) > 0)
+                        invNorm[d] = 1.0 / c.norm(F);
+                    if(count == touched.length)
+                        touched = Arrays.copyOf(touched, count * 2);
+                    touched[count++] = d;
+                }
+                acc[d] += factor * p.tf(i) * invNorm[d];
+            }
+            if(open && kthBest(acc, touched, count, k) >= rest[j])
+                open = false;
+        }
+
+        MaxHeap h = new MaxHeap();
+        for(int i = 0; i < count; i++) {
+            int d = touched[i];
+            InvertedIndex.Doc c = index.doc(d);
+            if(c != null && c.serial < before && acc[d] > 0)
+                h.insert(acc[d] / wNorm, c.article);
+        }
+
+        SearchMetrics.add(SearchMetrics.Counter.DOCS_SCORED, count);
+        SearchMetrics.add(SearchMetrics.Counter.POSTINGS_DECODED, postings);
+
+        List<SearchEngine.Hit> hits = new ArrayList<SearchEngine.Hit>(k);
+        while(hits.size() < k && !h.isEmpty()) {
+            double s = h.maxKey();
+            hits.add(new SearchEngine.Hit(h.getMax(), s));
+        }
+        return hits;
+    }
+
+    // k-th largest accumulator among the touched documents, 0 if fewer than k
+    private static double kthBest(double[] acc, int[] touched, int count, int k) {
+        if(count < k)
+            return 0;
+        double[] top = new double[k];            // min-heap of the k largest so far
+        for(int i = 0; i < count; i++) {
+            double a = acc[touched[i]];
+            if(i < k) {
+                top[i] = a;
+                for(int c = i; c > 0 && top[c] < top[(c - 1) / 2]; c = (c - 1) / 2)
+                    swap(top, c, (c - 1) / 2);
+            } else if(a > top[0]) {
+                top[0] = a;
+                for(int c = 0; 2 * c + 1 < k; ) {
+                    int s = 2 * c + 1;
+                    if(s + 1 < k && top[s + 1] < top[s])
+                        s++;
+                    if(top[c] <= top[s])
+                        break;
+                    swap(top, c, s);
+                    c = s;
+                }
+            }
+        }
+        return top[0];
+    }
+
+    private static void swap(double[] a, int i, int j) {
+        double t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
+
+
+    // a term of the source article: its postings, tf-idf weight, idf and upper bound
+    private static class Term {
+        static final Comparator<Term> BY_WEIGHT = new Comparator<Term>() {
+            public int compare(Term a, Term b) {
+                return Double.compare(b.weight, a.weight);
+            }
+        };
+        static final Comparator<Term> BY_BOUND = new Comparator<Term>() {
+            public int compare(Term a, Term b) {
+                return Double.compare(b.bound, a.bound);
+            }
+        };
+
+        final InvertedIndex.Postings postings;
+        final double weight;
+        final double idf;
+        final double bound;                      // most this term adds to any tf/|d| score
+
+        Term(InvertedIndex.Postings postings, double weight, double idf) {
+            this.postings = postings;
+            this.weight = weight;
+            this.idf = idf;
+            this.bound = weight * idf * postings.maxWeight();
+        }
+    }
+}
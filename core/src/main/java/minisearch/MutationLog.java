@@ -0,0 +1,457 @@
+/*
+ * MutationLog.java
+ *
+ * Makes additions and deletions survive a restart. SearchEngine appends a
+ * record for every change it makes, and only reports the change as done
+ * once the record is on disk (fsync'd), so an acknowledged edit is never
+ * lost, even if the machine crashes right after.
+ *
+ * Records are written by a single background thread. While it waits for
+ * one fsync, records from other writers pile up, and the next write and
+ * fsync covers all of them at once (group commit). A burst of edits from
+ * many threads therefore costs a few fsyncs, not one each, and a writer
+ * waits for at most about two fsyncs.
+ *
+ * The log is a series of segment files wal-000001.log, wal-000002.log, ...
+ * Each record is its length, a CRC32 of its contents, then an operation,
+ * a title and (for additions) a body. A record torn by a crash fails its
+ * check; replay stops there and the rest of that segment is dropped.
+ *
+ * When the current segment grows past a limit, SearchEngine compacts the
+ * log: it switches to a new segment, writes every article it holds to
+ * snapshot.bin (via a temporary file and a rename, so a crash leaves the
+ * old snapshot intact) and deletes the segments the snapshot covers. On
+ * startup, recover() loads the snapshot, or the article folder if there is
+ * none yet, and replays the segments written after it.
+ */
+
+package minisearch;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+public class MutationLog implements Closeable {
+
+    public static final byte ADD = 1;
+    public static final byte DELETE = 2;
+
+    private static final int SNAPSHOT_MAGIC = 0x4d53534e;    // "MSSN"
+    private static final String SNAPSHOT = "snapshot.bin";
+
+    private final File dir;
+    private final long compactBytes;             // compact once a segment is this large (0: never)
+
+    // state shared with the flusher thread, guarded by lock
+    private final Object lock = new Object();
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private long appended;                       // number of the last record appended
+    private long durable;                        // number of the last record on disk
+    private IOException failure;
+    private boolean closed;
+    private FileChannel channel;
+    private int segment;                         // number of the segment being written
+    private long segmentBytes;
+    private boolean compacting;
+
+    private Thread flusher;
+    private Runnable compactor;
+    private volatile long fsyncs, records;
+
+    public MutationLog(File dir, long compactBytes) {
+        this.dir = dir;
+        this.compactBytes = compactBytes;
+    }
+
+    // the log in -Dminisearch.wal=dir, compacting once a segment reaches
+    // -Dminisearch.wal.compact megabytes (default 16); null if not set
+    public static MutationLog configured() {
+        String dir = System.getProperty("minisearch.wal");
+        if(dir == null)
+            return null;
+        return new MutationLog(new File(dir), Long.getLong("minisearch.wal.compact", 16) << 20);
+    }
+
+    public File getDirectory() {
+        return dir;
+    }
+
+    /*
+     * Recovery
+     */
+
+    // the articles as of the last acknowledged change: the snapshot (or, if
+    // there is none, the articles in dbPath) with the log replayed on top
+    public ArticleTable recover(String dbPath) throws IOException {
+        return recover(new DatabaseIterator(dbPath));
+    }
+
+    // as recover(dbPath), starting from the articles of db if there is no snapshot
+    public ArticleTable recover(DatabaseIterator db) throws IOException {
+        if(!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("cannot create " + dir);
+        ArticleTable T = new ArticleTable();
+        int first = 1;
+        File snap = new File(dir, SNAPSHOT);
+        if(snap.exists()) {
+            first = readSnapshot(snap, T);
+        } else {
+            for(int i = 0; i < db.getNumArticles(); i++)
+                T.insert(db.next());
+        }
+
+        int replayed = 0;
+        int last = first - 1;
+        for(int n : segments()) {
+            if(n < first)
+                continue;
+            replayed += replay(segmentFile(n), T);
+            last = n;
+        }
+        segment = Math.max(last, first - 1);
+        if(replayed > 0)
+            System.err.println("mutation log: replayed " + replayed + " changes from " + dir);
+        return T;
+    }
+
+    // apply the intact records of a segment to T; truncates a torn tail
+    private static int replay(File f, ArticleTable T) throws IOException {
+        int n = 0;
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch)));
+            long good = 0;
+            while(true) {
+                Record r = Record.read(in);
+                if(r == null)
+                    break;
+                if(r.op == ADD) {
+                    T.insert(new Article(r.title, r.body));
+                } else {
+                    T.delete(r.title);
+                }
+                good += r.size;
+                n++;
+            }
+            if(good < ch.size()) {
+                System.err.println("mutation log: dropping " + (ch.size() - good) + " damaged bytes at the end of " + f);
+                ch.truncate(good);
+                ch.force(true);
+            }
+        }
+        return n;
+    }
+
+    // load a snapshot into T; returns the first segment not covered by it
+    private static int readSnapshot(File f, ArticleTable T) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            if(in.readInt() != SNAPSHOT_MAGIC)
+                throw new IOException(f + " is not a snapshot");
+            int first = in.readInt();
+            int count = in.readInt();
+            for(int i = 0; i < count; i++) {
+                Record r = Record.read(in);
+                if(r == null)
+                    throw new IOException(f + " is damaged");
+                T.insert(new Article(r.title, r.body));
+            }
+            return first;
+        }
+    }
+
+    /*
+     * Logging
+     */
+
+    // start a new segment and the flusher thread. compactor is run (on its own
+    // thread) when the segment outgrows the limit; it should call rotate()
+    // and writeSnapshot()
+    public void start(Runnable compactor) throws IOException {
+        synchronized(lock) {
+            this.compactor = compactor;
+            openSegment(segment + 1);
+        }
+        flusher = new Thread(new Runnable() {
+            public void run() {
+                flushLoop();
+            }
+        }, "mutation-log");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // false once the log is closed or a write has failed: it takes no more
+    // records, so writers should refuse changes instead of making them
+    public boolean healthy() {
+        synchronized(lock) {
+            return !closed && failure == null;
+        }
+    }
+
+    // queue a record; returns its number, to pass to await()
+    public long append(byte op, String title, String body) {
+        byte[] rec = Record.encode(op, title, op == ADD ? body : "");
+        synchronized(lock) {
+            if(closed)
+                throw new IllegalStateException("mutation log is closed");
+            if(failure != null)
+                throw new UncheckedIOException("mutation log write failed", failure);
+            pending.write(rec, 0, rec.length);
+            lock.notifyAll();
+            return ++appended;
+        }
+    }
+
+    // wait until record seq (and all before it) is on disk
+    public void await(long seq) {
+        boolean interrupted = false;
+        synchronized(lock) {
+            while(durable < seq && failure == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if(interrupted)
+                Thread.currentThread().interrupt();
+            if(durable < seq)
+                throw new UncheckedIOException("mutation log write failed", failure);
+        }
+    }
+
+    private void flushLoop() {
+        while(true) {
+            ByteArrayOutputStream batch;
+            FileChannel ch;
+            long upto;
+            synchronized(lock) {
+                while(pending.size() == 0 && !closed)
+                    waitQuietly();
+                if(pending.size() == 0)
+                    return;                      // closed and drained
+                batch = pending;
+                pending = new ByteArrayOutputStream();
+                upto = appended;
+                ch = channel;
+            }
+            try {
+                ByteBuffer b = ByteBuffer.wrap(batch.toByteArray());
+                while(b.hasRemaining())
+                    ch.write(b);
+                ch.force(false);
+            } catch (IOException e) {
+                synchronized(lock) {
+                    failure = e;
+                    lock.notifyAll();
+                }
+                return;
+            }
+            boolean compact = false;
+            synchronized(lock) {
+                durable = upto;
+                segmentBytes += batch.size();
+                if(compactBytes > 0 && segmentBytes >= compactBytes && !compacting && compactor != null)
+                    compact = compacting = true;
+                lock.notifyAll();
+            }
+            fsyncs++;
+            records = upto;
+            if(compact) {
+                Thread t = new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            compactor.run();
+                        } finally {
+                            synchronized(lock) {
+                                compacting = false;
+                            }
+                        }
+                    }
+                }, "mutation-log-compaction");
+                t.setDaemon(true);
+                t.start();
+            }
+        }
+    }
+
+    // finish the current segment and start the next; returns the new
+    // segment's number. The caller must stop further appends meanwhile
+    // (SearchEngine holds its lock), so that the segment switch falls
+    // exactly between two changes
+    public int rotate() throws IOException {
+        synchronized(lock) {
+            while(durable < appended && failure == null)
+                waitQuietly();
+            if(failure != null)
+                throw failure;
+            openSegment(segment + 1);
+            return segment;
+        }
+    }
+
+    // write every article in s as the snapshot that later segments (from
+    // firstSegment on) are replayed onto, then delete the segments before it
+    public void writeSnapshot(Iterable<Article> s, int firstSegment) throws IOException {
+        File tmp = new File(dir, SNAPSHOT + ".tmp");
+        List<Article> articles = new ArrayList<Article>();
+        for(Article a : s)
+            articles.add(a);
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(firstSegment);
+            out.writeInt(articles.size());
+            for(Article a : articles)
+                out.write(Record.encode(ADD, a.getTitle(), a.getBody()));
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), new File(dir, SNAPSHOT).toPath(),
+                   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+        for(int n : segments()) {
+            if(n < firstSegment)
+                Files.deleteIfExists(segmentFile(n).toPath());
+        }
+    }
+
+    // write out what is queued, then stop
+    public void close() throws IOException {
+        synchronized(lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        if(flusher != null) {
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized(lock) {
+            if(channel != null)
+                channel.close();
+        }
+    }
+
+    public String toString() {
+        return "mutation log " + dir + ": segment " + segment + ", " + records + " records, " + fsyncs + " fsyncs";
+    }
+
+    /*
+     * Helper Methods
+     */
+
+    private void openSegment(int n) throws IOException {
+        if(channel != null)
+            channel.close();
+        channel = FileChannel.open(segmentFile(n).toPath(), StandardOpenOption.CREATE,
+                                   StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segment = n;
+        segmentBytes = channel.size();
+        syncDirectory();
+    }
+
+    private File segmentFile(int n) {
+        return new File(dir, String.format("wal-%06d.log", n));
+    }
+
+    // numbers of the segment files in dir, ascending
+    private int[] segments() {
+        String[] names = dir.list();
+        List<Integer> ns = new ArrayList<Integer>();
+        if(names != null) {
+            for(String name : names) {
+                if(name.matches("wal-\\d+\\.log"))
+                    ns.add(Integer.parseInt(name.substring(4, name.length() - 4)));
+            }
+        }
+        Collections.sort(ns);
+        int[] result = new int[ns.size()];
+        for(int i = 0; i < result.length; i++)
+            result[i] = ns.get(i);
+        return result;
+    }
+
+    // make a file's creation or renaming durable (not possible on every platform)
+    private void syncDirectory() {
+        try (FileChannel d = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            d.force(true);
+        } catch (IOException e) {
+            // best effort
+        }
+    }
+
+    private void waitQuietly() {
+        try {
+            lock.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    // one logged change: [length][crc32][op][title length][title][body length][body]
+    private static class Record {
+        final byte op;
+        final String title;
+        final String body;
+        final int size;                          // bytes on disk
+
+        Record(byte op, String title, String body, int size) {
+            this.op = op;
+            this.title = title;
+            this.body = body;
+            this.size = size;
+        }
+
+        static byte[] encode(byte op, String title, String body) {
+            byte[] t = title.getBytes(StandardCharsets.UTF_8);
+            byte[] b = body.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer buf = ByteBuffer.allocate(8 + 1 + 4 + t.length + 4 + b.length);
+            buf.putInt(buf.capacity() - 8).putInt(0);
+            buf.put(op).putInt(t.length).put(t).putInt(b.length).put(b);
+            CRC32 crc = new CRC32();
+            crc.update(buf.array(), 8, buf.capacity() - 8);
+            buf.putInt(4, (int) crc.getValue());
+            return buf.array();
+        }
+
+        // the next record, or null at the end or at a damaged record
+        static Record read(DataInputStream in) throws IOException {
+            int length, sum;
+            byte[] data;
+            try {
+                length = in.readInt();
+                sum = in.readInt();
+                if(length < 9 || length > (1 << 30))
+                    return null;
+                data = new byte[length];
+                in.readFully(data);
+            } catch (EOFException e) {
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, length);
+            if((int) crc.getValue() != sum)
+                return null;
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            byte op = buf.get();
+            int tl = buf.getInt();
+            if(op != ADD && op != DELETE || tl < 0 || tl > buf.remaining() - 4)
+                return null;
+            String title = new String(data, buf.position(), tl, StandardCharsets.UTF_8);
+            buf.position(buf.position() + tl);
+            int bl = buf.getInt();
+            if(bl != buf.remaining())
+                return null;
+            String body = new String(data, buf.position(), bl, StandardCharsets.UTF_8);
+            return new Record(op, title, body, 8 + length);
+        }
+    }
+}
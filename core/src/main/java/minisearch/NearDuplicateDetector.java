@@ -0,0 +1,281 @@
+/*
+ * NearDuplicateDetector.java
+ *
+ * Finds articles whose bodies are near-identical to one already loaded
+ * (redirects, copies with a word or two changed), so that they can be
+ * flagged or kept out of the index.
+ *
+ * Each body gets a 64-bit SimHash: every pair of adjacent words is hashed
+ * to 64 bits, and bit i of the signature is set when more of those hashes
+ * have bit i set than not. Similar bodies share most word pairs, so their
+ * signatures differ in only a few bits. Two articles count as duplicates
+ * when their signatures differ in at most MAX_DISTANCE bits.
+ *
+ * To avoid comparing against every article, signatures are split into
+ * BANDS bands of 16 bits, and each band value maps to the articles having
+ * it (locality sensitive hashing). Signatures within MAX_DISTANCE (< BANDS)
+ * bits of each other must agree on at least one whole band, so looking up
+ * the new signature's bands finds every duplicate, after checking only
+ * the few articles that share a band.
+ *
+ * Flags follow removals: when an article is removed, the articles flagged
+ * as its duplicates are matched again against those that remain, and are
+ * re-pointed to another near-duplicate or no longer flagged.
+ *
+ * Not thread-safe: SearchEngine only uses it while holding its own monitor
+ * (synchronized methods and blocks), which serializes all its writers.
+ * The one exception is isDuplicate, which searches call without the lock
+ * to leave flagged articles out of their hits; the flags are kept in a
+ * ConcurrentHashMap for it.
+ */
+
+package minisearch;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class NearDuplicateDetector {
+
+    // what SearchEngine does with an article found to be a near-duplicate
+    public enum Policy {
+        OFF,         // no detection
+        FLAG,        // load it, but remember which article it duplicates and leave
+                     // it out of search hits while that one stands
+        COLLAPSE     // do not load it; the first article stands for both
+    }
+
+    static final int BANDS = 4;
+    static final int BAND_BITS = 64 / BANDS;
+    static final int MAX_DISTANCE = 3;
+    static final int MIN_WORDS = 8;      // shorter bodies are too small to judge
+
+    private final Map<String, Long> signatures = new HashMap<String, Long>();   // title -> signature
+    private final List<Map<Integer, List<String>>> bands = new ArrayList<Map<Integer, List<String>>>();
+    private final Map<String, String> duplicateOf = new ConcurrentHashMap<String, String>();
+    private final Map<String, List<String>> dependents = new HashMap<String, List<String>>();  // the reverse
+
+    public NearDuplicateDetector() {
+        for(int b = 0; b < BANDS; b++)
+            bands.add(new HashMap<Integer, List<String>>());
+    }
+
+    // title of a known article that a is a near-duplicate of, or null
+    public String findDuplicate(Article a) {
+        return findDuplicate(a, null);
+    }
+
+    // as findDuplicate(a), but not counting the article titled ignore (the
+    // one a is about to replace)
+    public String findDuplicate(Article a, String ignore) {
+        String[] words = words(a.getBody());
+        if(words.length < MIN_WORDS)
+            return null;
+        return find(simHash(words), a.getTitle(), ignore, false);
+    }
+
+    // remember a so that later articles are compared against it. If dupOf is
+    // not null, a was loaded as a duplicate of that article (Policy.FLAG)
+    public void add(Article a, String dupOf) {
+        if(dupOf != null)
+            flag(a.getTitle(), dupOf);
+        String[] words = words(a.getBody());
+        if(words.length < MIN_WORDS)
+            return;
+        long sig = simHash(words);
+        signatures.put(a.getTitle(), sig);
+        for(int b = 0; b < BANDS; b++) {
+            List<String> l = bands.get(b).get(band(sig, b));
+            if(l == null)
+                bands.get(b).put(band(sig, b), l = new ArrayList<String>(1));
+            l.add(a.getTitle());
+        }
+    }
+
+    // forget title; articles flagged as its duplicates are re-pointed to
+    // another unflagged article they duplicate, or no longer flagged
+    public void remove(String title) {
+        unflag(title);
+        Long sig = signatures.remove(title);
+        if(sig != null) {
+            for(int b = 0; b < BANDS; b++) {
+                List<String> l = bands.get(b).get(band(sig, b));
+                if(l != null) {
+                    l.remove(title);
+                    if(l.isEmpty())
+                        bands.get(b).remove(band(sig, b));
+                }
+            }
+        }
+        List<String> deps = dependents.remove(title);
+        if(deps == null)
+            return;
+        // each in turn is matched against the unflagged articles, so that the
+        // first of a group of copies stands for the ones after it
+        for(String d : deps) {
+            duplicateOf.remove(d);
+            Long s = signatures.get(d);
+            String other = s == null ? null : find(s, d, null, true);
+            if(other != null)
+                flag(d, other);
+        }
+    }
+
+    // title of the article that title was flagged as duplicating, or null
+    public String duplicateOf(String title) {
+        return duplicateOf.get(title);
+    }
+
+    // true if the article titled title is flagged as a near-duplicate. Safe
+    // to call without the engine's lock
+    public boolean isDuplicate(String title) {
+        return duplicateOf.containsKey(title);
+    }
+
+    // true if any article is flagged. Safe to call without the engine's lock
+    public boolean anyDuplicates() {
+        return !duplicateOf.isEmpty();
+    }
+
+    // number of loaded articles flagged as near-duplicates
+    public int flagged() {
+        return duplicateOf.size();
+    }
+
+    // number of signatures held
+    public int size() {
+        return signatures.size();
+    }
+
+    // add the signatures, bands and flags to r
+    void footprint(MemoryReport r) {
+        long sigs = MemoryReport.mapEntries(signatures.size()) + MemoryReport.mapTable(signatures.size());
+        for(String t : signatures.keySet())
+            sigs += MemoryReport.string(t) + MemoryReport.boxed(8);
+        r.add("NearDuplicateDetector", "signatures", signatures.size(), sigs);
+
+        long lists = 0, titles = 0, bytes = 0;
+        for(Map<Integer, List<String>> band : bands) {
+            bytes += MemoryReport.mapEntries(band.size()) + MemoryReport.mapTable(band.size());
+            for(List<String> l : band.values()) {
+                lists++;
+                bytes += MemoryReport.boxed(4) + MemoryReport.object(1, 8) + MemoryReport.refArray(l.size());
+                for(String t : l) {
+                    titles++;
+                    bytes += MemoryReport.string(t);
+                }
+            }
+        }
+        r.add("NearDuplicateDetector", "bands", titles, bytes);
+
+        long flags = MemoryReport.mapEntries(duplicateOf.size()) + MemoryReport.mapTable(duplicateOf.size());
+        for(Map.Entry<String, String> e : duplicateOf.entrySet())
+            flags += MemoryReport.string(e.getKey()) + MemoryReport.string(e.getValue());
+        flags += MemoryReport.mapEntries(dependents.size()) + MemoryReport.mapTable(dependents.size());
+        for(List<String> l : dependents.values())
+            flags += MemoryReport.object(1, 8) + MemoryReport.refArray(l.size());
+        r.add("NearDuplicateDetector", "flagged duplicates", duplicateOf.size(), flags);
+        r.note("NearDuplicateDetector", String.format("%d band lists for %d signatures", lists, signatures.size()));
+    }
+
+    // candidates share a band with sig; return the first within MAX_DISTANCE
+    // bits, only counting articles not flagged themselves if standing
+    private String find(long sig, String self, String ignore, boolean standing) {
+        for(int b = 0; b < BANDS; b++) {
+            List<String> l = bands.get(b).get(band(sig, b));
+            if(l == null)
+                continue;
+            for(String t : l) {
+                if(t.equals(self) || t.equals(ignore) || (standing && duplicateOf.containsKey(t)))
+                    continue;
+                if(Long.bitCount(sig ^ signatures.get(t)) <= MAX_DISTANCE)
+                    return t;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Helper Methods
+     */
+
+    // record that title duplicates dupOf
+    private void flag(String title, String dupOf) {
+        unflag(title);
+        duplicateOf.put(title, dupOf);
+        List<String> l = dependents.get(dupOf);
+        if(l == null)
+            dependents.put(dupOf, l = new ArrayList<String>(1));
+        l.add(title);
+    }
+
+    // forget that title duplicates another article, if it was flagged
+    private void unflag(String title) {
+        String dupOf = duplicateOf.remove(title);
+        if(dupOf == null)
+            return;
+        List<String> l = dependents.get(dupOf);
+        if(l != null) {
+            l.remove(title);
+            if(l.isEmpty())
+                dependents.remove(dupOf);
+        }
+    }
+
+    private static int band(long sig, int b) {
+        return (int) (sig >>> (b * BAND_BITS)) & ((1 << BAND_BITS) - 1);
+    }
+
+    // the lowercased words of s. Unlike TermFrequencyTable, digits are kept and
+    // blacklisted words are not dropped: "May 24" and "May 29" differ only in
+    // their numbers, and word order is part of what makes two texts the same
+    static String[] words(String s) {
+        List<String> words = new ArrayList<String>();
+        int start = -1;
+        for(int i = 0; i <= s.length(); i++) {
+            boolean inWord = i < s.length() && Character.isLetterOrDigit(s.charAt(i));
+            if(inWord && start < 0)
+                start = i;
+            else if(!inWord && start >= 0) {
+                words.add(s.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return words.toArray(new String[words.size()]);
+    }
+
+    // SimHash over adjacent word pairs
+    static long simHash(String[] words) {
+        int[] votes = new int[64];
+        for(int i = 0; i + 1 < words.length; i++) {
+            long h = mix(hash64(words[i]) * 31 + hash64(words[i + 1]));
+            for(int bit = 0; bit < 64; bit++)
+                votes[bit] += ((h >>> bit) & 1) != 0 ? 1 : -1;
+        }
+        long sig = 0;
+        for(int bit = 0; bit < 64; bit++) {
+            if(votes[bit] > 0)
+                sig |= 1L << bit;
+        }
+        return sig;
+    }
+
+    // 64-bit FNV-1a over the characters of s
+    private static long hash64(String s) {
+        long h = 0xcbf29ce484222325L;
+        for(int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // MurmurHash3 finalizer, spreads every input bit over the whole word
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
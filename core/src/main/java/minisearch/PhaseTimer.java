@@ -0,0 +1,65 @@
+/*
+ * PhaseTimer.java
+ *
+ * Accumulates the time spent in one phase of searching or loading (see
+ * SearchMetrics.Phase): a running total plus a LatencyHistogram of the
+ * individual samples. Exposed over JMX through PhaseTimerMBean.
+ */
+
+package minisearch;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class PhaseTimer implements PhaseTimerMBean {
+
+    private final String name;
+    private final LongAdder totalNanos = new LongAdder();
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    public PhaseTimer(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void record(long nanos) {
+        totalNanos.add(nanos);
+        histogram.record(nanos);
+    }
+
+    public long getCount() {
+        return histogram.count();
+    }
+
+    public double getTotalMillis() {
+        return totalNanos.sum() / 1e6;
+    }
+
+    public double getMeanMicros() {
+        long n = histogram.count();
+        return n == 0 ? 0.0 : totalNanos.sum() / 1e3 / n;
+    }
+
+    public double getP50Micros() {
+        return histogram.percentile(50) / 1e3;
+    }
+
+    public double getP95Micros() {
+        return histogram.percentile(95) / 1e3;
+    }
+
+    public double getP99Micros() {
+        return histogram.percentile(99) / 1e3;
+    }
+
+    public double getMaxMicros() {
+        return histogram.max() / 1e3;
+    }
+
+    public void reset() {
+        totalNanos.reset();
+        histogram.reset();
+    }
+}
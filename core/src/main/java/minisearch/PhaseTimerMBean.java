@@ -0,0 +1,29 @@
+/*
+ * PhaseTimerMBean.java
+ *
+ * JMX view of a PhaseTimer, registered as
+ * minisearch:type=SearchMetrics,phase=<name>.
+ */
+
+package minisearch;
+
+public interface PhaseTimerMBean {
+
+    String getName();
+
+    long getCount();
+
+    double getTotalMillis();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP95Micros();
+
+    double getP99Micros();
+
+    double getMaxMicros();
+
+    void reset();
+}
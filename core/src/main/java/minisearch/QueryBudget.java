@@ -0,0 +1,109 @@
+/*
+ * QueryBudget.java
+ *
+ * Limits on how much work one search may do, so that an outlier query
+ * (a pasted paragraph, a phrase of very common words) cannot take much
+ * longer than the rest:
+ *
+ *   maxPostings   postings read, over all terms and fields
+ *   maxDocs       distinct documents given a score
+ *   maxMillis     wall-clock time
+ *   maxDf         fraction of a field's documents a term may occur in;
+ *                 more common terms are left out, beyond the blacklist
+ *
+ * A limit of 0 means none. SearchEngine reads the rarest terms first, so
+ * that when a budget runs out the postings left unread are those of the
+ * most common (least telling) terms. It then ranks the documents scored so
+ * far and marks the hits as partial. Documents met after maxDocs is
+ * reached are skipped, but those already scored keep collecting their
+ * remaining terms. Leaving out common terms also marks the hits partial,
+ * since their scores then miss those terms' share; the rarest term of each
+ * field is always kept.
+ *
+ * The defaults come from -Dminisearch.budget.postings, .docs, .millis and
+ * .maxdf.
+ */
+
+package minisearch;
+
+public class QueryBudget {
+
+    public static final QueryBudget UNLIMITED = new QueryBudget(0, 0, 0, 0);
+
+    private final long maxPostings;
+    private final int maxDocs;
+    private final long maxMillis;
+    private final double maxDf;
+
+    public QueryBudget(long maxPostings, int maxDocs, long maxMillis) {
+        this(maxPostings, maxDocs, maxMillis, 0);
+    }
+
+    public QueryBudget(long maxPostings, int maxDocs, long maxMillis, double maxDf) {
+        if(maxPostings < 0 || maxDocs < 0 || maxMillis < 0 || maxDf < 0 || maxDf > 1)
+            throw new IllegalArgumentException("budget limits must be non-negative, and maxDf at most 1");
+        this.maxPostings = maxPostings;
+        this.maxDocs = maxDocs;
+        this.maxMillis = maxMillis;
+        this.maxDf = maxDf;
+    }
+
+    // the budget set by the -Dminisearch.budget.* properties
+    public static QueryBudget configured() {
+        return new QueryBudget(Long.getLong("minisearch.budget.postings", 0),
+                               Integer.getInteger("minisearch.budget.docs", 0),
+                               Long.getLong("minisearch.budget.millis", 0),
+                               Double.parseDouble(System.getProperty("minisearch.budget.maxdf", "0")));
+    }
+
+    public long getMaxPostings() {
+        return maxPostings;
+    }
+
+    public int getMaxDocs() {
+        return maxDocs;
+    }
+
+    public long getMaxMillis() {
+        return maxMillis;
+    }
+
+    public double getMaxDf() {
+        return maxDf;
+    }
+
+    public boolean isUnlimited() {
+        return maxPostings == 0 && maxDocs == 0 && maxMillis == 0 && maxDf == 0;
+    }
+
+    // the time (System.nanoTime) by which a search started at start must end,
+    // or Long.MAX_VALUE
+    long deadline(long start) {
+        return maxMillis == 0 ? Long.MAX_VALUE : start + maxMillis * 1000000L;
+    }
+
+    // what is left of this budget once a search has read postings and scored
+    // docs, for searches that score in several calls (see SearchStream), or
+    // null if nothing is left. maxMillis is kept; such searches fix their
+    // deadline once, at the start
+    QueryBudget remaining(long postings, int docs) {
+        if((maxPostings > 0 && postings >= maxPostings) || (maxDocs > 0 && docs >= maxDocs))
+            return null;
+        return new QueryBudget(maxPostings == 0 ? 0 : maxPostings - postings, maxDocs == 0 ? 0 : maxDocs - docs,
+                               maxMillis, maxDf);
+    }
+
+    // true if a new document may be scored after docs so far
+    boolean allowsDocs(int docs) {
+        return maxDocs == 0 || docs < maxDocs;
+    }
+
+    public String toString() {
+        if(isUnlimited())
+            return "unlimited";
+        return ((maxPostings == 0 ? "" : maxPostings + " postings ") +
+                (maxDocs == 0 ? "" : maxDocs + " docs ") +
+                (maxMillis == 0 ? "" : maxMillis + " ms ") +
+                (maxDf == 0 ? "" : "df <= " + maxDf)).trim();
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * QueryPlan.java
+ *
+ * What SearchEngine needs to know about a phrase before reading any
+ * postings: its term frequencies and their norm, and for each term and
+ * field a clause holding the term's postings, whose length is the term's
+ * document frequency. Clauses are ordered rarest first, and among terms
+ * as rare, those that can add most to a score (highest tf in any document
+ * times tf in the phrase) first.
+ *
+ * Nothing here is cached. The statistics are those each Postings keeps
+ * (its length and largest tf), which the index replaces along with the
+ * postings of a term a change touched, so a plan costs one lock-free
+ * dictionary lookup per term and field and never sees stale figures.
+ * From them the engine decides which clauses to read and how:
+ *
+ *   - under a QueryBudget with maxDf, clauses of terms found in more than
+ *     that fraction of a field's documents are left out (the rarest clause
+ *     of each field is always read)
+ *   - term at a time, into arrays over every document number, when there
+ *     are many postings; document at a time, merging the lists by document
+ *     number, when there are few, where clearing those arrays would cost
+ *     more than the postings themselves (see byDocument())
+ */
+
+package minisearch;
+
+import java.util.*;
+
+class QueryPlan {
+
+    final Map<String, Integer> q;                // term -> frequency in the phrase
+    final double qNorm;
+    final Clause[] clauses;                      // rarest first
+
+    private QueryPlan(Map<String, Integer> q, double qNorm, Clause[] clauses) {
+        this.q = q;
+        this.qNorm = qNorm;
+        this.clauses = clauses;
+    }
+
+    // the plan for phrase over the index as it is now
+    static QueryPlan of(String phrase, InvertedIndex index) {
+        Map<String, Integer> q = InvertedIndex.termFrequencies(phrase);
+        double qNorm = 0;
+        for(int n : q.values())
+            qNorm += (double) n * n;
+        List<Clause> clauses = new ArrayList<Clause>();
+        for(int f = 0; f < InvertedIndex.FIELD_NAMES.length; f++) {
+            for(Map.Entry<String, Integer> e : q.entrySet()) {
+                InvertedIndex.Postings p = index.postings(f, e.getKey());
+                if(p != null)
+                    clauses.add(new Clause(e.getKey(), f, e.getValue(), p));
+            }
+        }
+        Collections.sort(clauses, new Comparator<Clause>() {
+            public int compare(Clause a, Clause b) {
+                int c = Integer.compare(a.df(), b.df());
+                return c != 0 ? c : Long.compare((long) b.qtf * b.maxTf(), (long) a.qtf * a.maxTf());
+            }
+        });
+        return new QueryPlan(q, Math.sqrt(qNorm), clauses.toArray(new Clause[clauses.size()]));
+    }
+
+    // the clauses to read, rarest first: those of fields with a boost, less
+    // those over the budget's maxDf (a fraction of the field's documents)
+    Clause[] select(double[] boost, double maxDf, InvertedIndex index) {
+        Clause[] selected = new Clause[clauses.length];
+        boolean[] any = new boolean[boost.length];
+        int m = 0;
+        for(Clause c : clauses) {
+            if(boost[c.field] == 0)
+                continue;
+            if(maxDf > 0 && any[c.field] && c.df() > maxDf * index.docCount(c.field))
+                continue;
+            any[c.field] = true;
+            selected[m++] = c;
+        }
+        return Arrays.copyOf(selected, m);
+    }
+
+    // true if reading clauses document at a time is cheaper than term at a
+    // time over n document numbers: each posting then costs a comparison
+    // with the head of every list, instead of the n slots to clear
+    static boolean byDocument(Clause[] clauses, int n) {
+        long postings = 0;
+        for(Clause c : clauses)
+            postings += c.df();
+        return postings * clauses.length < n;
+    }
+
+
+    // the postings of one phrase term in one field
+    static class Clause {
+        final String term;
+        final int field;
+        final int qtf;                           // frequency of the term in the phrase
+        final InvertedIndex.Postings postings;
+
+        Clause(String term, int field, int qtf, InvertedIndex.Postings postings) {
+            this.term = term;
+            this.field = field;
+            this.qtf = qtf;
+            this.postings = postings;
+        }
+
+        // documents containing the term in this field (one posting each)
+        int df() {
+            return postings.size();
+        }
+
+        // the highest frequency of the term in any one document's field
+        int maxTf() {
+            return postings.maxTf();
+        }
+    }
+}
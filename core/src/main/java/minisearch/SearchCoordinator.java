@@ -0,0 +1,434 @@
+/*
+ * SearchCoordinator.java
+ *
+ * Splits the articles over several SearchServer processes (shards) and
+ * serves them together, so that the collection is no longer limited to
+ * what one JVM can hold. An article belongs to shard shardOf(title, n),
+ * from the title's hash, and each shard is a SearchServer started with
+ * -shard i/n that loads only its own articles.
+ *
+ * The coordinator answers the same requests as SearchServer:
+ *
+ *   GET    /search?q=phrase[&k=3][&offset=n]   asks every shard for its best
+ *                                              offset + k hits at once and merges them;
+ *                                              offset + k is at most SearchServer.MAX_K
+ *                                              (100), and there is no after cursor
+ *   GET    /article?title=t                    passed to the shard owning t
+ *   POST   /article, DELETE /article?title=t   likewise
+ *   POST   /bulk                               lines split by shard, counts summed
+ *
+ * Merging needs no global statistics: a score depends only on the phrase
+ * and the article's own term frequencies (there is no IDF), so a shard
+ * scores each of its articles exactly as one index of every article
+ * would, and the global best hits are the best of the shards' best.
+ * Equal scores are ordered by shard, then by the shard's own order
+ * (document number), so the merged order is as stable as one server's.
+ *
+ * Paging is by offset only: the shards' cursors mark the end of their own
+ * pages, not of the hits the merge took from each, so they cannot be
+ * passed through. Each page asks every shard for offset + k hits, which
+ * is why offset + k is capped.
+ * Should IDF ever enter the score, the shards would first have to agree
+ * on collection-wide document frequencies (the sum of theirs).
+ *
+ * A shard that fails or does not answer within -Dminisearch.shard.timeout
+ * milliseconds (default 5000) is left out, and the response is marked
+ * partial. /related is not offered, as it needs the term vectors of
+ * articles on other shards; near-duplicates are only detected within a
+ * shard. /bulk is not atomic across shards: each shard applies its own
+ * lines as one batch, but a shard that fails leaves the others' changes
+ * in place, and the counts returned only cover the shards that answered.
+ *
+ * usage: java minisearch.SearchCoordinator [-db dir] [-port n] [-shards n]
+ *        java minisearch.SearchCoordinator [-port n] -workers url,url,...
+ *   -shards   start n local worker JVMs (default 2) on free ports; they
+ *             get this JVM's -X options and -Dminisearch.* properties
+ *             (each its own -Dminisearch.wal folder, shard-i, and its own
+ *             -Dminisearch.ann.file, file.shard-i)
+ *   -workers  use SearchServers already running with -shard i/n, in order
+ */
+
+package minisearch;
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class SearchCoordinator {
+
+    private final List<URI> shards;
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final Duration timeout = Duration.ofMillis(Long.getLong("minisearch.shard.timeout", 5000));
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    // serve the shards at the given base URLs (shard i first) on port
+    public SearchCoordinator(List<URI> shards, int port) throws IOException {
+        if(shards.isEmpty())
+            throw new IllegalArgumentException("need at least one shard");
+        this.shards = new ArrayList<URI>(shards);
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.executor = SearchServer.newRequestExecutor();
+        server.setExecutor(executor);
+        for(final String context : new String[] { "search", "article", "bulk" }) {
+            server.createContext("/" + context, new HttpHandler() {
+                public void handle(HttpExchange ex) throws IOException {
+                    serve(ex, context);
+                }
+            });
+        }
+    }
+
+    // the shard (of shards) an article belongs to; String.hashCode is the
+    // same in every JVM, so every process agrees
+    public static int shardOf(String title, int shards) {
+        return Math.floorMod(title.hashCode(), shards);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // the hits offset .. offset + k - 1 for phrase over all shards
+    public Result search(String phrase, int offset, int k) {
+        if(offset < 0 || k < 1 || offset + k > SearchServer.MAX_K)
+            throw new IllegalArgumentException("need offset >= 0, k >= 1 and offset + k <= " + SearchServer.MAX_K);
+        String query = "/search?q=" + URLEncoder.encode(phrase, StandardCharsets.UTF_8) + "&k=" + (offset + k);
+        List<CompletableFuture<HttpResponse<String>>> answers = new ArrayList<CompletableFuture<HttpResponse<String>>>();
+        for(URI shard : shards)
+            answers.add(client.sendAsync(request(shard, query).GET().build(), HttpResponse.BodyHandlers.ofString()));
+
+        Result r = new Result();
+        List<Hit> all = new ArrayList<Hit>();
+        for(int i = 0; i < answers.size(); i++) {
+            try {
+                HttpResponse<String> response = answers.get(i).get();
+                if(response.statusCode() != 200)
+                    throw new IOException("status " + response.statusCode());
+                Map<String, Object> page = Json.parseObject(response.body());
+                int rank = 0;
+                for(Object o : (List<?>) page.get("hits")) {
+                    Map<?, ?> h = (Map<?, ?>) o;
+                    all.add(new Hit((String) h.get("title"), ((Double) h.get("score")).doubleValue(), i, rank++));
+                }
+                if(page.get("total") instanceof Double)
+                    r.total += ((Double) page.get("total")).intValue();
+                if(Boolean.TRUE.equals(page.get("partial")))
+                    r.partial = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                r.failed++;
+            } catch (ExecutionException | IOException | RuntimeException e) {
+                r.failed++;
+            }
+        }
+        if(r.failed > 0) {
+            r.partial = true;
+            SearchMetrics.increment(SearchMetrics.Counter.PARTIAL_RESULTS);
+        }
+
+        Collections.sort(all, Hit.BEST_FIRST);
+        for(int i = offset; i < all.size() && i < offset + k; i++)
+            r.hits.add(all.get(i));
+        return r;
+    }
+
+    /*
+     * Requests
+     */
+
+    private void serve(HttpExchange ex, String context) throws IOException {
+        try {
+            String method = ex.getRequestMethod();
+            Map<String, String> params = SearchServer.queryParams(ex);
+            if(context.equals("search") && method.equals("GET")) {
+                String q = SearchServer.required(params, "q");
+                if(params.get("after") != null)
+                    throw new IllegalArgumentException("the coordinator pages by offset only, not after");
+                Result r = search(q, SearchServer.offsetParam(params.get("offset")),
+                                  SearchServer.intParam(params, "k", 3));
+                Writer w = SearchServer.beginJson(ex, 200);
+                w.write(r.toJson(q));
+                w.flush();
+            } else if(context.equals("article") && (method.equals("GET") || method.equals("DELETE"))) {
+                String title = SearchServer.required(params, "title");
+                forward(ex, owner(title), "/article?title=" + URLEncoder.encode(title, StandardCharsets.UTF_8),
+                        method, null);
+            } else if(context.equals("article") && method.equals("POST")) {
+                String body = SearchServer.readBody(ex);
+                Object title = Json.parseObject(body).get("title");
+                if(!(title instanceof String))
+                    throw new IllegalArgumentException("expected {\"title\": string, \"body\": string}");
+                forward(ex, owner((String) title), "/article", method, body);
+            } else if(context.equals("bulk") && method.equals("POST"))
+                bulk(ex);
+            else
+                SearchServer.error(ex, 405, "method not allowed");
+        } catch (IllegalArgumentException e) {
+            SearchServer.error(ex, 400, e.getMessage());
+        } catch (RuntimeException e) {
+            SearchServer.error(ex, 500, String.valueOf(e));
+        } finally {
+            ex.close();
+        }
+    }
+
+    // send the request on to shard and relay its answer
+    private void forward(HttpExchange ex, URI shard, String path, String method, String body) throws IOException {
+        HttpRequest.BodyPublisher content = body == null ? HttpRequest.BodyPublishers.noBody()
+                                                         : HttpRequest.BodyPublishers.ofString(body);
+        HttpResponse<String> response;
+        try {
+            response = client.send(request(shard, path).method(method, content).build(),
+                                   HttpResponse.BodyHandlers.ofString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted");
+        } catch (IOException e) {
+            SearchServer.error(ex, 502, "shard " + shard + " unavailable: " + e.getMessage());
+            return;
+        }
+        Writer w = SearchServer.beginJson(ex, response.statusCode());
+        w.write(response.body());
+        w.flush();
+    }
+
+    // split the lines of a /bulk body by shard, send each shard its lines and
+    // add up the counts. Lines are checked here first, so that a bad line
+    // rejects the whole batch as on a single server
+    private void bulk(HttpExchange ex) throws IOException {
+        String body = SearchServer.readBody(ex);
+        BulkUpdate.parse(new BufferedReader(new StringReader(body)));
+        StringBuilder[] parts = new StringBuilder[shards.size()];
+        for(int i = 0; i < parts.length; i++)
+            parts[i] = new StringBuilder();
+        for(String line : body.split("\n")) {
+            if(line.trim().isEmpty())
+                continue;
+            String title = (String) Json.parseObject(line).get("title");
+            parts[shardOf(title, shards.size())].append(line).append('\n');
+        }
+
+        Map<String, Double> sums = new LinkedHashMap<String, Double>();
+        int failed = 0;
+        for(int i = 0; i < parts.length; i++) {
+            if(parts[i].length() == 0)
+                continue;
+            try {
+                HttpResponse<String> response = client.send(
+                    request(shards.get(i), "/bulk").POST(HttpRequest.BodyPublishers.ofString(parts[i].toString())).build(),
+                    HttpResponse.BodyHandlers.ofString());
+                if(response.statusCode() != 200)
+                    throw new IOException("status " + response.statusCode());
+                for(Map.Entry<String, Object> e : Json.parseObject(response.body()).entrySet()) {
+                    if(e.getValue() instanceof Double) {
+                        Double sum = sums.get(e.getKey());
+                        sums.put(e.getKey(), (sum == null ? 0 : sum) + (Double) e.getValue());
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed++;
+            } catch (IOException | RuntimeException e) {
+                failed++;
+            }
+        }
+
+        StringBuilder sb = new StringBuilder("{");
+        for(Map.Entry<String, Double> e : sums.entrySet()) {
+            double v = e.getValue();
+            sb.append(Json.quote(e.getKey())).append(':')
+              .append(v == Math.rint(v) && !e.getKey().equals("millis") ? String.valueOf((long) v) : Json.number(v)).append(',');
+        }
+        sb.append("\"failed_shards\":").append(failed).append('}');
+        Writer w = SearchServer.beginJson(ex, failed == 0 ? 200 : 502);
+        w.write(sb.toString());
+        w.flush();
+    }
+
+    /*
+     * Helper Methods
+     */
+
+    private URI owner(String title) {
+        return shards.get(shardOf(title, shards.size()));
+    }
+
+    private HttpRequest.Builder request(URI shard, String path) {
+        return HttpRequest.newBuilder(shard.resolve(path)).timeout(timeout);
+    }
+
+    // start n local SearchServer JVMs, one per shard, and return their URLs
+    // once they are listening. They are stopped when this JVM exits
+    static List<URI> launch(String dbPath, int n) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<String> jvmArgs = new ArrayList<String>();
+        for(String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if(arg.startsWith("-X") || arg.startsWith("--add-modules") ||
+               (arg.startsWith("-Dminisearch.") && !arg.startsWith("-Dminisearch.wal=") &&
+                !arg.startsWith("-Dminisearch.ann.file=")))
+                jvmArgs.add(arg);
+        }
+        String wal = System.getProperty("minisearch.wal");
+        String ann = System.getProperty("minisearch.ann.file");
+
+        final List<Process> workers = new ArrayList<Process>();
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                for(Process p : workers)
+                    p.destroy();
+            }
+        });
+        for(int i = 0; i < n; i++) {
+            List<String> cmd = new ArrayList<String>();
+            cmd.add(java);
+            cmd.addAll(jvmArgs);
+            if(wal != null)
+                cmd.add("-Dminisearch.wal=" + new File(wal, "shard-" + i));
+            if(ann != null)
+                cmd.add("-Dminisearch.ann.file=" + ann + ".shard-" + i);   // each shard has its own graph
+            cmd.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), "minisearch.SearchServer",
+                                     "-db", dbPath, "-port", "0", "-shard", i + "/" + n));
+            ProcessBuilder pb = new ProcessBuilder(cmd);
+            pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+            workers.add(pb.start());
+        }
+
+        // each worker prints "Listening on http://localhost:port/" when ready
+        List<URI> urls = new ArrayList<URI>();
+        for(int i = 0; i < n; i++) {
+            final BufferedReader out = new BufferedReader(
+                new InputStreamReader(workers.get(i).getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while((line = out.readLine()) != null && !line.startsWith("Listening on "))
+                System.out.println("shard " + i + ": " + line);
+            if(line == null)
+                throw new IOException("shard " + i + " exited before listening");
+            urls.add(URI.create(line.substring("Listening on ".length())));
+            Thread drain = new Thread("shard-" + i + "-output") {
+                public void run() {
+                    try {
+                        while(out.readLine() != null)
+                            ;
+                    } catch (IOException e) {
+                        // worker gone
+                    }
+                }
+            };
+            drain.setDaemon(true);
+            drain.start();
+        }
+        return urls;
+    }
+
+
+    // a hit as reported by a shard
+    public static class Hit {
+        // by score, then shard, then place in the shard's hits (which a
+        // shard orders by document number on equal scores)
+        static final Comparator<Hit> BEST_FIRST = new Comparator<Hit>() {
+            public int compare(Hit a, Hit b) {
+                int c = Double.compare(b.score, a.score);
+                if(c == 0)
+                    c = Integer.compare(a.shard, b.shard);
+                return c != 0 ? c : Integer.compare(a.rank, b.rank);
+            }
+        };
+
+        public final String title;
+        public final double score;
+        final int shard;                         // index of the shard it came from
+        final int rank;                          // its place in that shard's hits
+
+        Hit(String title, double score, int shard, int rank) {
+            this.title = title;
+            this.score = score;
+            this.shard = shard;
+            this.rank = rank;
+        }
+
+        public String toString() {
+            return title + " (" + score + ")";
+        }
+    }
+
+    // merged hits, the total over all shards, and how many shards failed
+    public static class Result {
+        public final List<Hit> hits = new ArrayList<Hit>();
+        public int total;
+        public int failed;
+        public boolean partial;
+
+        public String toJson(String query) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\"query\":").append(Json.quote(query)).append(",\"hits\":[");
+            for(int i = 0; i < hits.size(); i++) {
+                if(i > 0)
+                    sb.append(',');
+                sb.append("{\"title\":").append(Json.quote(hits.get(i).title))
+                  .append(",\"score\":").append(Json.number(hits.get(i).score)).append('}');
+            }
+            sb.append("],\"total\":").append(total);
+            if(failed > 0)
+                sb.append(",\"failed_shards\":").append(failed);
+            if(partial)
+                sb.append(",\"partial\":true");
+            return sb.append('}').toString();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String dbPath = "articles/";
+        int port = 8080;
+        int n = 2;
+        List<URI> workers = null;
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].equals("-db") && i + 1 < args.length)
+                dbPath = args[++i];
+            else if(args[i].equals("-port") && i + 1 < args.length)
+                port = Integer.parseInt(args[++i]);
+            else if(args[i].equals("-shards") && i + 1 < args.length)
+                n = Integer.parseInt(args[++i]);
+            else if(args[i].equals("-workers") && i + 1 < args.length) {
+                workers = new ArrayList<URI>();
+                for(String url : args[++i].split(","))
+                    workers.add(URI.create(url.endsWith("/") ? url : url + "/"));
+            } else {
+                System.err.println("usage: java minisearch.SearchCoordinator [-db dir] [-port n] " +
+                                   "[-shards n | -workers url,url,...]");
+                System.err.println("  /search pages by offset only, with offset + k <= " + SearchServer.MAX_K);
+                System.exit(2);
+            }
+        }
+        if(n < 1) {
+            System.err.println("-shards needs n >= 1");
+            System.exit(2);
+        }
+
+        if(workers == null)
+            workers = launch(dbPath, n);
+        SearchCoordinator c = new SearchCoordinator(workers, port);
+        c.start();
+        System.out.println("Coordinating " + workers.size() + " shards " + workers);
+        System.out.println("Listening on http://localhost:" + c.getPort() + "/");
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * SearchCursor.java
+ *
+ * Where a page of search results ended, so that the next page can start
+ * right after it: the score and document number of the last hit (hits are
+ * ordered by score, then document number), the index's next serial number
+ * when the first page was made (see InvertedIndex.nextSerial()), and a
+ * hash of the phrase and boosts it belongs to. Clients see it only as an
+ * opaque URL-safe string.
+ *
+ * Later pages only consider documents added before that serial number, so
+ * articles added while paging do not shift or repeat hits, even when they
+ * take the number of a removed one; articles removed meanwhile simply no
+ * longer appear. The cursor holds no hits: each later page scores every
+ * candidate again and only keeps those after the cursor (see
+ * SearchEngine.page()).
+ */
+
+package minisearch;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+class SearchCursor {
+
+    private static final byte VERSION = 2;
+
+    final double score;
+    final int doc;
+    final long added;                            // documents with serials below this are paged
+    final int query;                             // hash of the phrase and boosts
+
+    SearchCursor(double score, int doc, long added, int query) {
+        this.score = score;
+        this.doc = doc;
+        this.added = added;
+        this.query = query;
+    }
+
+    // true if a hit (score s, document d) comes after this cursor
+    boolean before(double s, int d) {
+        return s < score || (s == score && d > doc);
+    }
+
+    String encode() {
+        ByteBuffer b = ByteBuffer.allocate(1 + 8 + 4 + 8 + 4);
+        b.put(VERSION).putDouble(score).putInt(doc).putLong(added).putInt(query);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(b.array());
+    }
+
+    static SearchCursor decode(String s) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(s);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("malformed search cursor");
+        }
+        if(bytes.length != 25 || bytes[0] != VERSION)
+            throw new IllegalArgumentException("malformed search cursor");
+        ByteBuffer b = ByteBuffer.wrap(bytes, 1, 24);
+        return new SearchCursor(b.getDouble(), b.getInt(), b.getLong(), b.getInt());
+    }
+
+    // hash identifying a phrase searched with the given boosts
+    static int queryHash(String phrase, double bodyBoost, double titleBoost) {
+        int h = phrase.hashCode();
+        h = 31 * h + Double.hashCode(bodyBoost);
+        return 31 * h + Double.hashCode(titleBoost);
+    }
+}
@@ -0,0 +1,1009 @@
+/*
+ * SearchEngine.java
+ *
+ * Keeps an ArticleTable (lookup by title) and an InvertedIndex (search) in
+ * step, and ranks articles against a search phrase. Shared by the
+ * interactive menu in MiniSearch, the batch driver in BatchSearch and the
+ * HTTP server in SearchServer.
+ *
+ * An article's score is the cosine similarity between the phrase and its
+ * body, as in TermFrequencyTable, blended with the cosine similarity
+ * between the phrase and its title:
+ *
+ *     score = (bodyBoost * cos(phrase, body) + titleBoost * cos(phrase, title))
+ *             / (bodyBoost + titleBoost)
+ *
+ * so it stays between 0 and 1, and with a title boost of 0 it is exactly
+ * the old body-only cosine similarity. The boosts default to 1.0 and 0.5
+ * and can be set with -Dminisearch.boost.body and -Dminisearch.boost.title.
+ *
+ * New articles are checked for near-duplicate bodies (NearDuplicateDetector)
+ * and, depending on -Dminisearch.dedup=off|flag|collapse (default flag),
+ * loaded and flagged or left out. Flagged articles stay in the table (so
+ * lookup by title finds them) but searches leave them out of their hits,
+ * so one copy stands for all; when that copy is removed, the flags move to
+ * another copy or are dropped, and the article shows up again.
+ *
+ * With -Dminisearch.ann=true, search() takes its candidates from a
+ * VectorIndex (approximate nearest neighbors) instead of the postings of
+ * every phrase term, and scores only those. -Dminisearch.ann.file=path
+ * loads the graph from path, or builds it and saves it there;
+ * -Dminisearch.ann.dim, .m, .efc and .ef set its parameters. Removed
+ * articles leave dead nodes in the graph; once a third of them are dead
+ * it is rebuilt over the live articles (and saved again).
+ *
+ * Before scoring, a phrase is turned into a QueryPlan: its terms' postings
+ * and their statistics (document frequency, highest tf), rarest first,
+ * read lock-free from the Postings the index keeps per term. The plan
+ * decides whether the
+ * postings are read term at a time or document at a time, and which common
+ * terms a QueryBudget with maxDf leaves out.
+ *
+ * Searches read the table and index without locking, so any number of
+ * threads may search while others add or remove articles; additions and
+ * removals are serialized here so the two structures always agree.
+ *
+ * With a MutationLog (setLog), each change is queued for the log while the
+ * lock is held, so the log records changes in the order they were made,
+ * and waited for after it is released, so concurrent writers share fsyncs.
+ * Once a log write fails, changes are refused (UncheckedIOException)
+ * before they touch the table, so memory does not run ahead of the disk.
+ */
+
+package minisearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+
+public class SearchEngine {
+
+    private final ArticleTable T;
+    private final InvertedIndex index = new InvertedIndex();
+    private final MoreLikeThis moreLikeThis = new MoreLikeThis(index);
+    private final NearDuplicateDetector duplicates = new NearDuplicateDetector();
+    private NearDuplicateDetector.Policy dedup = NearDuplicateDetector.Policy.valueOf(
+        System.getProperty("minisearch.dedup", "flag").toUpperCase());
+    private int collapsed;                       // near-duplicates refused under Policy.COLLAPSE
+
+    private volatile VectorIndex vectors;        // null unless approximate search is on
+    private File vectorFile;                     // where vectors is saved when rebuilt, or null
+    private volatile MutationLog log;            // null unless changes are made durable
+
+    private volatile double bodyBoost = Double.parseDouble(System.getProperty("minisearch.boost.body", "1.0"));
+    private volatile double titleBoost = Double.parseDouble(System.getProperty("minisearch.boost.title", "0.5"));
+    private volatile QueryBudget budget = QueryBudget.configured();
+
+    // index every article already in T. Under Policy.COLLAPSE, near-duplicates
+    // of articles met earlier in the table are removed from it
+    public SearchEngine(ArticleTable T) {
+        this.T = T;
+        for(Article a : T.snapshot()) {
+            if(!admit(a))
+                T.delete(a.getTitle());
+            else
+                index.add(a);
+        }
+        if(Boolean.getBoolean("minisearch.ann"))
+            vectors = openVectorIndex();
+    }
+
+    // build the vector index from the -Dminisearch.ann.* properties, or load it
+    private VectorIndex openVectorIndex() {
+        String path = System.getProperty("minisearch.ann.file");
+        vectorFile = path == null ? null : new File(path);
+        VectorIndex v = null;
+        try {
+            if(vectorFile != null && vectorFile.exists())
+                v = VectorIndex.load(vectorFile, index);
+        } catch (IOException e) {
+            System.err.println("could not load " + path + ", rebuilding: " + e.getMessage());
+        }
+        if(v != null && v.wantsRebuild())
+            v = v.rebuilt();                     // too many articles removed or changed since it was saved
+        else if(v != null)
+            return configured(v);
+        if(v == null) {
+            v = new VectorIndex(index, Integer.getInteger("minisearch.ann.dim", 512),
+                                Integer.getInteger("minisearch.ann.m", 16),
+                                Integer.getInteger("minisearch.ann.efc", 100), 42);
+            v.addAll();
+        }
+        save(v);
+        return configured(v);
+    }
+
+    private static VectorIndex configured(VectorIndex v) {
+        v.setEf(Integer.getInteger("minisearch.ann.ef", 100));
+        return v;
+    }
+
+    // replace the vector index with a fresh one once enough of its nodes are
+    // dead (see VectorIndex.wantsRebuild). Writers wait for the rebuild;
+    // searches go on with the old graph until the new one is swapped in
+    private void rebuildVectors() {
+        VectorIndex v = vectors;
+        if(v == null || !v.wantsRebuild())
+            return;
+        v = v.rebuilt();
+        save(v);
+        vectors = v;
+    }
+
+    private void save(VectorIndex v) {
+        try {
+            if(vectorFile != null)
+                v.save(vectorFile);
+        } catch (IOException e) {
+            System.err.println("could not save " + vectorFile + ": " + e.getMessage());
+        }
+    }
+
+    public ArticleTable getTable() {
+        return T;
+    }
+
+    public InvertedIndex getIndex() {
+        return index;
+    }
+
+    // add an article to the table and the index; returns false if the title is
+    // taken, or if the article is a near-duplicate and the policy is COLLAPSE
+    public boolean insert(Article a) {
+        long seq;
+        synchronized(this) {
+            checkLog();
+            if(!add(a))
+                return false;
+            seq = log(MutationLog.ADD, a);
+        }
+        sync(seq);
+        return true;
+    }
+
+    // remove the article with this title from both; returns false if there was none
+    public boolean delete(String title) {
+        long seq;
+        synchronized(this) {
+            checkLog();
+            if(!remove(title))
+                return false;
+            seq = log(MutationLog.DELETE, title);
+        }
+        sync(seq);
+        return true;
+    }
+
+    // apply a batch of additions and deletions (see BulkUpdate): the table and
+    // index are each updated once for the whole batch
+    public BulkUpdate.Result apply(BulkUpdate u) {
+        BulkUpdate.Result r;
+        List<String> removed = new ArrayList<String>();
+        List<Article> added = new ArrayList<Article>();
+        long seq = 0;
+        synchronized(this) {
+            checkLog();
+            r = update(u, removed, added);
+            for(String title : removed)
+                seq = log(MutationLog.DELETE, title);
+            for(Article a : added)
+                seq = log(MutationLog.ADD, a);
+        }
+        sync(seq);
+        return r;
+    }
+
+    // apply u, adding the titles removed and the articles added to the lists
+    private BulkUpdate.Result update(BulkUpdate u, List<String> removed, List<Article> added) {
+        long start = System.nanoTime();
+        BulkUpdate.Result r = new BulkUpdate.Result();
+
+        // replay the operations per title to find what is there afterwards
+        Map<String, Article> after = new LinkedHashMap<String, Article>();   // title -> article, null if absent
+        Map<Article, String> replacing = new IdentityHashMap<Article, String>();   // addition -> title it replaces
+        for(BulkUpdate.Op op : u.ops()) {
+            boolean present = after.containsKey(op.title) ? after.get(op.title) != null : T.member(op.title);
+            if(op.replaces != null) {
+                // as replace(): decided before the old article goes
+                boolean old = after.containsKey(op.replaces) ? after.get(op.replaces) != null : T.member(op.replaces);
+                if(old && present && !op.title.equals(op.replaces))
+                    r.skipped++;
+                else if(old && collapses(op.article, op.replaces))
+                    r.rejected++;
+                else {
+                    if(old) {
+                        after.put(op.replaces, null);
+                        r.deleted++;
+                    }
+                    if(old || !present) {
+                        after.put(op.title, op.article);
+                        replacing.put(op.article, old ? op.replaces : null);
+                        r.added++;
+                    } else
+                        r.skipped++;
+                }
+            } else if(op.article == null) {
+                if(present) {
+                    after.put(op.title, null);
+                    r.deleted++;
+                } else
+                    r.missing++;
+            } else {
+                if(present)
+                    r.skipped++;
+                else {
+                    after.put(op.title, op.article);
+                    r.added++;
+                }
+            }
+        }
+
+        // net change: remove titles that end up absent or with a new article, then add the new ones
+        List<String> removals = new ArrayList<String>();
+        List<Article> additions = new ArrayList<Article>();
+        for(Map.Entry<String, Article> e : after.entrySet()) {
+            Article old = T.lookup(e.getKey());
+            if(old != null && old != e.getValue())
+                removals.add(e.getKey());
+            if(e.getValue() != null && e.getValue() != old)
+                additions.add(e.getValue());
+        }
+        for(String title : removals)
+            duplicates.remove(title);
+        for(Iterator<Article> it = additions.iterator(); it.hasNext(); ) {
+            Article a = it.next();
+            if(!admit(a)) {
+                it.remove();
+                r.added--;
+                r.rejected++;
+                // a near-duplicate of another addition in this batch: keep the
+                // article it was to replace, if that is not replaced otherwise
+                String old = replacing.get(a);
+                if(old != null && (after.get(old) == null || after.get(old) == a) && removals.remove(old)) {
+                    duplicates.add(T.lookup(old), null);
+                    r.deleted--;
+                }
+            }
+        }
+        for(String title : removals)
+            forget(title);
+
+        boolean[] inserted = T.update(removals, additions);
+        List<Article> indexed = new ArrayList<Article>(additions.size());
+        for(int i = 0; i < inserted.length; i++) {
+            if(inserted[i])
+                indexed.add(additions.get(i));
+        }
+        index.removeAll(removals);
+        rebuildVectors();
+        int[] ids = index.addAll(indexed);
+        VectorIndex v = vectors;
+        if(v != null) {
+            for(int id : ids) {
+                if(id >= 0)
+                    v.add(index.doc(id));
+            }
+        }
+        removed.addAll(removals);
+        added.addAll(indexed);
+        r.nanos = System.nanoTime() - start;
+        return r;
+    }
+
+    // replace the article titled oldTitle (if any) with a, in one step as far as
+    // other writers are concerned; returns false if a could not be added, in
+    // which case the old article is left as it was
+    public boolean replace(String oldTitle, Article a) {
+        long seq = 0;
+        boolean added;
+        synchronized(this) {
+            checkLog();
+            if(oldTitle == null || !T.member(oldTitle))
+                added = add(a);
+            else if(!a.getTitle().equals(oldTitle) && T.member(a) || collapses(a, oldTitle))
+                added = false;               // decided before the old article goes
+            else {
+                remove(oldTitle);
+                seq = log(MutationLog.DELETE, oldTitle);
+                added = add(a);              // cannot be refused now
+            }
+            if(added)
+                seq = log(MutationLog.ADD, a);
+        }
+        sync(seq);
+        return added;
+    }
+
+    private boolean add(Article a) {
+        if(T.member(a) || !admit(a))
+            return false;
+        T.insert(a);
+        int id = index.add(a);
+        VectorIndex v = vectors;
+        if(v != null && id >= 0)
+            v.add(index.doc(id));
+        return true;
+    }
+
+    private boolean remove(String title) {
+        if(!T.delete(title))
+            return false;
+        forget(title);
+        index.remove(title);
+        duplicates.remove(title);
+        rebuildVectors();
+        return true;
+    }
+
+    // mark the vector index node of the article titled title, about to be
+    // removed from the index, as dead
+    private void forget(String title) {
+        VectorIndex v = vectors;
+        if(v != null)
+            v.remove(index.doc(index.docId(title)));
+    }
+
+    // add the structures behind this engine to r (see MemoryReport)
+    synchronized void footprint(MemoryReport r) {
+        r.setArticles(T.size());
+        T.footprint(r);
+        T.getStore().footprint(r);
+        index.footprint(r);
+        duplicates.footprint(r);
+        VectorIndex v = vectors;
+        if(v != null)
+            v.footprint(r);
+    }
+
+    // queue a change for the log; returns its number, or 0 if there is no log
+    private long log(byte op, Article a) {
+        MutationLog l = log;
+        return l == null ? 0 : l.append(op, a.getTitle(), a.getBody());
+    }
+
+    private long log(byte op, String title) {
+        MutationLog l = log;
+        return l == null ? 0 : l.append(op, title, "");
+    }
+
+    // refuse a change if the log can no longer record it
+    private void checkLog() {
+        MutationLog l = log;
+        if(l != null && !l.healthy())
+            throw new UncheckedIOException(new IOException("mutation log is closed or failed; changes are refused"));
+    }
+
+    // wait until change seq is on disk
+    private void sync(long seq) {
+        if(seq > 0)
+            log.await(seq);
+    }
+
+    // run near-duplicate detection on a new article; false means leave it out
+    private boolean admit(Article a) {
+        if(dedup == NearDuplicateDetector.Policy.OFF)
+            return true;
+        String dup = duplicates.findDuplicate(a);
+        if(dup != null) {
+            SearchMetrics.increment(SearchMetrics.Counter.NEAR_DUPLICATES);
+            if(dedup == NearDuplicateDetector.Policy.COLLAPSE) {
+                collapsed++;
+                return false;
+            }
+        }
+        duplicates.add(a, dup);
+        return true;
+    }
+
+    // true if a is left out as a near-duplicate of an article other than the
+    // one titled ignore (see admit())
+    private boolean collapses(Article a, String ignore) {
+        if(dedup != NearDuplicateDetector.Policy.COLLAPSE || duplicates.findDuplicate(a, ignore) == null)
+            return false;
+        SearchMetrics.increment(SearchMetrics.Counter.NEAR_DUPLICATES);
+        collapsed++;
+        return true;
+    }
+
+    public synchronized void setDedupPolicy(NearDuplicateDetector.Policy p) {
+        dedup = p;
+    }
+
+    public synchronized NearDuplicateDetector.Policy getDedupPolicy() {
+        return dedup;
+    }
+
+    // title of the article that title was flagged as a near-duplicate of, or null
+    public synchronized String duplicateOf(String title) {
+        return duplicates.duplicateOf(title);
+    }
+
+    // articles flagged (FLAG) or left out (COLLAPSE) as near-duplicates so far
+    public synchronized int nearDuplicates() {
+        return duplicates.flagged() + collapsed;
+    }
+
+    // turn approximate search on (with v built over this engine's index) or off (null)
+    public synchronized void setVectorIndex(VectorIndex v) {
+        if(v != null)
+            v.addAll();                          // catch up with articles added since it was built
+        vectors = v;
+    }
+
+    public VectorIndex getVectorIndex() {
+        return vectors;
+    }
+
+    // make every later change durable through log (recovered with
+    // log.recover() into the table this engine was built on): the change
+    // methods return only once their changes are on disk
+    public void setLog(MutationLog log) throws IOException {
+        log.start(new Runnable() {
+            public void run() {
+                try {
+                    compactLog();
+                } catch (IOException e) {
+                    System.err.println("mutation log compaction failed: " + e.getMessage());
+                }
+            }
+        });
+        this.log = log;
+    }
+
+    public MutationLog getLog() {
+        return log;
+    }
+
+    // write all articles to the log's snapshot and drop the segments it replaces
+    public void compactLog() throws IOException {
+        MutationLog l = log;
+        if(l == null)
+            return;
+        int segment;
+        ArticleTable.Snapshot s;
+        synchronized(this) {
+            segment = l.rotate();
+            s = T.snapshot();
+        }
+        l.writeSnapshot(s, segment);
+    }
+
+    public Article lookup(String title) {
+        return T.lookup(title);
+    }
+
+    public void setBoosts(double body, double title) {
+        if(body < 0 || title < 0 || body + title == 0)
+            throw new IllegalArgumentException("boosts must be non-negative and not both zero");
+        bodyBoost = body;
+        titleBoost = title;
+    }
+
+    public double getBodyBoost() {
+        return bodyBoost;
+    }
+
+    public double getTitleBoost() {
+        return titleBoost;
+    }
+
+    // limits on the work of each search(); see QueryBudget
+    public void setBudget(QueryBudget b) {
+        budget = b;
+    }
+
+    public QueryBudget getBudget() {
+        return budget;
+    }
+
+    // score every article sharing a term with the phrase and insert those
+    // with score > 0 into a heap (implementing maxQueue), within this
+    // engine's query budget
+    public MaxHeap rank(String phrase) {
+        return rank(phrase, budget, null);
+    }
+
+    // as rank(phrase), stopping early when budget runs out; hits (if not
+    // null) is then marked partial
+    private MaxHeap rank(String phrase, QueryBudget budget, Hits hits) {
+        Scored s = score(phrase, budget, 0, Integer.MAX_VALUE, index.nextSerial());
+        MaxHeap h = new MaxHeap();
+        for(int i = 0; i < s.count; i++) {
+            if(s.docs[i] != null && s.scores[i] != 0.0)
+                h.insert(s.scores[i], s.docs[i].article);
+        }
+        if(hits != null && s.partial)
+            hits.partial = true;
+        finish(s, h.size());
+        return h;
+    }
+
+    // score the documents (numbered from from to below limit, and added
+    // before serial number before) sharing a term with the phrase, until
+    // budget runs out. before must be read before the call: see InvertedIndex
+    Scored score(String phrase, QueryBudget budget, int from, int limit, long before) {
+        return score(phrase, budget, budget.deadline(budget.getMaxMillis() == 0 ? 0 : System.nanoTime()),
+                     from, limit, before);
+    }
+
+    // as score(phrase, budget, from, limit, before), but ending by deadline
+    // (System.nanoTime, or Long.MAX_VALUE) instead of budget's maxMillis
+    // from now, for searches that score in several calls (see SearchStream)
+    Scored score(String phrase, QueryBudget budget, long deadline, int from, int limit, long before) {
+        Scored result = new Scored();
+        long start = SearchMetrics.start();
+        double[] boost = new double[InvertedIndex.FIELD_NAMES.length];
+        boost[InvertedIndex.BODY] = bodyBoost;
+        boost[InvertedIndex.TITLE] = titleBoost;
+        double totalBoost = boost[InvertedIndex.BODY] + boost[InvertedIndex.TITLE];
+
+        // the phrase's terms and their postings, rarest first
+        QueryPlan plan = QueryPlan.of(phrase, index);
+        long t1 = SearchMetrics.enabled() ? System.nanoTime() : 0;
+
+        result.start = start;
+        result.tokenized = result.gathered = result.scored = t1;
+        if(plan.qNorm == 0)
+            return result;
+        QueryPlan.Clause[] clauses = plan.select(boost, budget.getMaxDf(), index);
+        int dropped = 0;
+        for(QueryPlan.Clause c : plan.clauses) {
+            if(boost[c.field] != 0)
+                dropped++;
+        }
+        dropped -= clauses.length;
+        if(dropped > 0) {
+            SearchMetrics.add(SearchMetrics.Counter.TERMS_DROPPED, dropped);
+            result.partial = true;
+        }
+
+        int n = Math.min(index.maxDocId(), limit);
+        if(from >= n)
+            return result;
+        if(QueryPlan.byDocument(clauses, n - from)) {
+            SearchMetrics.increment(SearchMetrics.Counter.DOC_AT_A_TIME);
+            gatherByDocument(clauses, from, n, budget, deadline, result);
+        } else
+            gatherByTerm(clauses, from, n, budget, deadline, result);
+        if(result.partial)
+            SearchMetrics.increment(SearchMetrics.Counter.PARTIAL_RESULTS);
+        long t2 = SearchMetrics.enabled() ? System.nanoTime() : 0;
+
+        // turn the sums into cosines, using the norms stored with each document.
+        // The deadline is checked again, as gathering may have used it all up:
+        // documents left when it passes are dropped, and the hits are partial
+        int count = result.count;
+        double[] scores = new double[count];
+        InvertedIndex.Doc[] docs = new InvertedIndex.Doc[count];
+        boolean dedup = duplicates.anyDuplicates();
+        for(int i = 0; i < count; i++) {
+            if((i & 1023) == 0 && deadline != Long.MAX_VALUE && System.nanoTime() > deadline) {
+                if(!result.partial)
+                    SearchMetrics.increment(SearchMetrics.Counter.PARTIAL_RESULTS);
+                result.partial = true;
+                result.count = i;
+                break;
+            }
+            docs[i] = index.doc(result.ids[i]);
+            if(docs[i] != null && (docs[i].serial >= before || dedup && duplicates.isDuplicate(docs[i].article.getTitle())))
+                docs[i] = null;
+            if(docs[i] == null)                  // removed, not yet fully added, added since before, or flagged
+                continue;
+            double s = 0;
+            for(int f = 0; f < boost.length; f++) {
+                if(result.dots[f][i] > 0)
+                    s += boost[f] * result.dots[f][i] / (plan.qNorm * docs[i].norm(f));
+            }
+            scores[i] = s / totalBoost;
+        }
+        long t3 = SearchMetrics.enabled() ? System.nanoTime() : 0;
+
+        result.gathered = t2;
+        result.scored = t3;
+        result.docs = docs;
+        result.scores = scores;
+        result.ids = null;
+        result.dots = null;
+        return result;
+    }
+
+    // term at a time: sum qtf * tf per document (numbered from from to below
+    // n) and field over each clause's postings in turn, rarest first, into
+    // r.ids and r.dots
+    private static void gatherByTerm(QueryPlan.Clause[] clauses, int from, int n, QueryBudget budget,
+                                     long deadline, Scored r) {
+        int fields = InvertedIndex.FIELD_NAMES.length;
+        double[][] dot = new double[fields][n - from];             // by document number - from
+        boolean[] seen = new boolean[n - from];
+        int[] touched = new int[16];
+        int count = 0;
+        long postings = 0;
+        boolean partial = false;
+        boolean stop = false;                    // out of postings or time
+        for(int j = 0; j < clauses.length && !stop; j++) {
+            InvertedIndex.Postings p = clauses[j].postings;
+            double[] acc = dot[clauses[j].field];
+            int qtf = clauses[j].qtf;
+            int begin = p.find(from);
+            int last = p.find(n);                // later ones were added after this search (or its first page) started
+            int end = last;
+            if(budget.getMaxPostings() > 0 && postings + (end - begin) >= budget.getMaxPostings()) {
+                end = begin + (int) (budget.getMaxPostings() - postings);
+                stop = true;
+            }
+            for(int i = begin; i < end; i++) {
+                if(((i - begin) & 1023) == 0 && deadline != Long.MAX_VALUE && System.nanoTime() > deadline) {
+                    end = i;
+                    stop = true;
+                    break;
+                }
+                int d = p.doc(i) - from;
+                if(!seen[d]) {
+                    if(!budget.allowsDocs(count)) {
+                        partial = true;          // keep adding to the documents already seen
+                        continue;
+                    }
+                    seen[d] = true;
+                    if(count == touched.length)
+                        touched = Arrays.copyOf(touched, count * 2);
+                    touched[count++] = d;
+                }
+                acc[d] += qtf * p.tf(i);
+            }
+            postings += end - begin;
+            if(stop && (end < last || j + 1 < clauses.length))
+                partial = true;
+        }
+
+        double[][] dots = new double[fields][count];
+        for(int f = 0; f < fields; f++) {
+            for(int i = 0; i < count; i++)
+                dots[f][i] = dot[f][touched[i]];
+        }
+        for(int i = 0; i < count; i++)
+            touched[i] += from;
+        r.ids = touched;
+        r.dots = dots;
+        r.count = count;
+        r.postings = postings;
+        r.partial |= partial;
+    }
+
+    // document at a time: merge the clauses' postings by document number,
+    // summing qtf * tf per field for each document from from to below n in
+    // turn. A budget that runs out leaves the higher-numbered documents
+    // unscored; maxPostings is checked per posting, so a document may be
+    // left with only its rarer terms counted
+    private static void gatherByDocument(QueryPlan.Clause[] clauses, int from, int n, QueryBudget budget,
+                                         long deadline, Scored r) {
+        int fields = InvertedIndex.FIELD_NAMES.length;
+        int[] at = new int[clauses.length];      // next posting of each clause
+        for(int j = 0; j < clauses.length; j++)
+            at[j] = clauses[j].postings.find(from);
+        int[] ids = new int[16];
+        double[][] dots = new double[fields][16];
+        int count = 0;
+        long postings = 0;
+        boolean partial = false;
+        long maxPostings = budget.getMaxPostings();
+        while(!partial) {
+            int d = Integer.MAX_VALUE;
+            for(int j = 0; j < clauses.length; j++) {
+                if(at[j] < clauses[j].postings.size())
+                    d = Math.min(d, clauses[j].postings.doc(at[j]));
+            }
+            if(d >= n)                           // no postings left, or only of documents added since
+                break;
+            if(!budget.allowsDocs(count) ||
+               (maxPostings > 0 && postings >= maxPostings) ||
+               ((count & 1023) == 1023 && deadline != Long.MAX_VALUE && System.nanoTime() > deadline)) {
+                partial = true;
+                break;
+            }
+            if(count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+                for(int f = 0; f < fields; f++)
+                    dots[f] = Arrays.copyOf(dots[f], count * 2);
+            }
+            ids[count] = d;
+            for(int j = 0; j < clauses.length; j++) {
+                InvertedIndex.Postings p = clauses[j].postings;
+                if(at[j] < p.size() && p.doc(at[j]) == d) {
+                    if(maxPostings > 0 && postings >= maxPostings) {
+                        partial = true;
+                        break;
+                    }
+                    dots[clauses[j].field][count] += clauses[j].qtf * p.tf(at[j]++);
+                    postings++;
+                }
+            }
+            count++;
+        }
+        r.ids = ids;
+        r.dots = dots;
+        r.count = count;
+        r.postings = postings;
+        r.partial |= partial;
+    }
+
+    // record the phases of one search, given the times each ended
+    private static void finish(long start, long tokenized, long gathered, long scored,
+                               int docs, long postings, int hits) {
+        if(start == 0)
+            return;
+        long end = System.nanoTime();
+        SearchMetrics.record(SearchMetrics.Phase.QUERY, end - start);
+        SearchMetrics.record(SearchMetrics.Phase.TOKENIZE, tokenized - start);
+        SearchMetrics.record(SearchMetrics.Phase.CANDIDATES, gathered - tokenized);
+        SearchMetrics.record(SearchMetrics.Phase.SCORE, scored - gathered);
+        SearchMetrics.record(SearchMetrics.Phase.TOP_K, end - scored);
+        SearchMetrics.increment(SearchMetrics.Counter.QUERIES);
+        SearchMetrics.add(SearchMetrics.Counter.DOCS_SCORED, docs);
+        SearchMetrics.add(SearchMetrics.Counter.POSTINGS_DECODED, postings);
+        SearchMetrics.add(SearchMetrics.Counter.HITS, hits);
+    }
+
+    static void finish(Scored s, int hits) {
+        finish(s.start, s.tokenized, s.gathered, s.scored, s.count, s.postings, hits);
+    }
+
+    // a page of the exact hits for phrase: the size hits after the first
+    // offset, ordered by score and then document number.
+    //
+    // Every page scores all the articles sharing a term with the phrase, so
+    // each costs O(candidates) however deep it is; nothing is kept between
+    // pages. What a cursor (getNext()) saves over an offset is the ordering:
+    // a heap of size hits instead of offset + size. Pages ignore the engine's
+    // QueryBudget, since a search cut short at a different point on each page
+    // could skip or repeat hits between them
+    public Page page(String phrase, int offset, int size) {
+        return page(phrase, offset, size, null);
+    }
+
+    // the size hits after those of the page whose getNext() returned after
+    public Page page(String phrase, String after, int size) {
+        return page(phrase, 0, size, SearchCursor.decode(after));
+    }
+
+    private Page page(String phrase, int offset, int size, SearchCursor after) {
+        if(offset < 0 || size < 1)
+            throw new IllegalArgumentException("need offset >= 0 and size >= 1");
+        int query = SearchCursor.queryHash(phrase, bodyBoost, titleBoost);
+        if(after != null && after.query != query)
+            throw new IllegalArgumentException("search cursor belongs to another search");
+        long added = after != null ? after.added : index.nextSerial();
+        final Scored s = score(phrase, QueryBudget.UNLIMITED, 0, Integer.MAX_VALUE, added);
+
+        // the best offset + size hits after the cursor, worst at the head
+        int keep = (int) Math.min((long) offset + size, Integer.MAX_VALUE);
+        PriorityQueue<Integer> best = new PriorityQueue<Integer>(Math.min(keep, 1024), new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return s.compare(b, a);
+            }
+        });
+        int total = 0;
+        for(int i = 0; i < s.count; i++) {
+            if(s.docs[i] == null || s.scores[i] == 0.0)
+                continue;
+            total++;
+            if(after != null && !after.before(s.scores[i], s.docs[i].id))
+                continue;
+            if(best.size() < keep)
+                best.add(i);
+            else if(s.compare(i, best.peek()) < 0) {
+                best.poll();
+                best.add(i);
+            }
+        }
+
+        int[] order = new int[best.size()];
+        for(int i = order.length - 1; i >= 0; i--)
+            order[i] = best.poll();
+        Page page = new Page();
+        for(int i = offset; i < order.length; i++)
+            page.add(new Hit(s.docs[order[i]].article, s.scores[order[i]]));
+        page.total = total;
+        if(order.length == keep && !page.isEmpty()) {
+            int last = order[order.length - 1];
+            SearchCursor c = new SearchCursor(s.scores[last], s.docs[last].id, added, query);
+            if(hasMore(s, c))
+                page.next = c.encode();
+        }
+        finish(s, page.size());
+        return page;
+    }
+
+    // true if some hit in s comes after c
+    private static boolean hasMore(Scored s, SearchCursor c) {
+        for(int i = 0; i < s.count; i++) {
+            if(s.docs[i] != null && s.scores[i] != 0.0 && c.before(s.scores[i], s.docs[i].id))
+                return true;
+        }
+        return false;
+    }
+
+    // returns at most k hits for phrase, best first: approximate if there is a
+    // vector index, otherwise exact within this engine's query budget
+    public Hits search(String phrase, int k) {
+        return vectors != null ? searchApproximate(phrase, k) : searchExact(phrase, k, budget);
+    }
+
+    // the k best hits for phrase, published as they improve while the
+    // articles are scored -Dminisearch.stream.segment (default 1024) at a
+    // time on the common pool (see SearchStream). Subscribers that block in
+    // onNext, such as ones writing to a socket, should pass their own executor
+    public Flow.Publisher<Hits> stream(String phrase, int k) {
+        return stream(phrase, k, ForkJoinPool.commonPool());
+    }
+
+    public Flow.Publisher<Hits> stream(String phrase, int k, Executor executor) {
+        return stream(phrase, k, Integer.getInteger("minisearch.stream.segment", 1024), executor);
+    }
+
+    public Flow.Publisher<Hits> stream(String phrase, int k, int segment, Executor executor) {
+        return new SearchStream(this, phrase, k, segment, executor);
+    }
+
+    // the k best hits over every article sharing a term with the phrase
+    public Hits searchExact(String phrase, int k) {
+        return searchExact(phrase, k, QueryBudget.UNLIMITED);
+    }
+
+    // the k best hits among the articles scored before budget ran out
+    public Hits searchExact(String phrase, int k, QueryBudget budget) {
+        Hits hits = new Hits();
+        MaxHeap h = rank(phrase, budget, hits);
+        while(hits.size() < k && !h.isEmpty()) {
+            double cos = h.maxKey();
+            hits.add(new Hit(h.getMax(), cos));
+        }
+        return hits;
+    }
+
+    // the k best hits among the candidates the vector index finds for the
+    // phrase, scored exactly as in rank(). Falls back to searchExact if
+    // there is no vector index
+    public Hits searchApproximate(String phrase, int k) {
+        VectorIndex v = vectors;
+        if(v == null)
+            return searchExact(phrase, k);
+        long start = SearchMetrics.start();
+        double bBoost = bodyBoost, tBoost = titleBoost;
+
+        Map<String, Integer> q = InvertedIndex.termFrequencies(phrase);
+        double qNorm = 0;
+        for(int n : q.values())
+            qNorm += (double) n * n;
+        qNorm = Math.sqrt(qNorm);
+        long t1 = SearchMetrics.enabled() ? System.nanoTime() : 0;
+
+        int[] ids = qNorm == 0 ? new int[0] : v.candidates(phrase, k);
+        long t2 = SearchMetrics.enabled() ? System.nanoTime() : 0;
+
+        MaxHeap h = new MaxHeap();
+        for(int id : ids) {
+            InvertedIndex.Doc d = index.doc(id);
+            if(d == null || duplicates.isDuplicate(d.article.getTitle()))
+                continue;
+            double s = (bBoost * cosine(q, qNorm, d, InvertedIndex.BODY) +
+                        tBoost * cosine(q, qNorm, d, InvertedIndex.TITLE)) / (bBoost + tBoost);
+            if(s != 0.0)
+                h.insert(s, d.article);
+        }
+        long t3 = SearchMetrics.enabled() ? System.nanoTime() : 0;
+        finish(start, t1, t2, t3, ids.length, 0, h.size());
+
+        Hits hits = new Hits();
+        while(hits.size() < k && !h.isEmpty()) {
+            double cos = h.maxKey();
+            hits.add(new Hit(h.getMax(), cos));
+        }
+        return hits;
+    }
+
+    // cosine similarity between a phrase's term frequencies q (with norm qNorm)
+    // and field of d, from d's stored term vector
+    private static double cosine(Map<String, Integer> q, double qNorm, InvertedIndex.Doc d, int field) {
+        if(d.norm(field) == 0)
+            return 0;
+        double dot = 0;
+        for(int i = 0; i < d.termCount(field); i++) {
+            Integer n = q.get(d.term(field, i));
+            if(n != null)
+                dot += n * d.tf(field, i);
+        }
+        return dot / (qNorm * d.norm(field));
+    }
+
+    // the k articles most similar to the one titled title (see MoreLikeThis),
+    // or null if there is no such article. k must be at least 1
+    public List<Hit> related(String title, int k) {
+        return moreLikeThis.related(title, k);
+    }
+
+    // take two strings (where s is search term and t is body of article),
+    // create a TermFreqTable and initialize with the two strings.
+    // finally, extract cosine similarity and return it.
+    // * blacklist checking and preprocessing is encapsulated in TermFrequencyTable.
+    // no longer used for searching, but kept as the reference the index must agree with
+    public static double cosineSimilarity(String s, String t) {
+        TermFrequencyTable termTbl = new TermFrequencyTable();
+        termTbl.initialize(s, t);
+        return termTbl.cosineSimilarity();
+    }
+
+
+    // hits, best first; partial if the search was cut short by its QueryBudget
+    public static class Hits extends ArrayList<Hit> {
+        private static final long serialVersionUID = 1L;
+
+        boolean partial;
+
+        public boolean isPartial() {
+            return partial;
+        }
+    }
+
+    // a page of hits (see page()), with the cursor for the next page
+    public static class Page extends Hits {
+        private static final long serialVersionUID = 1L;
+
+        private String next;
+        private int total;
+
+        // cursor for the following page, or null if this is the last
+        public String getNext() {
+            return next;
+        }
+
+        // number of hits over all pages
+        public int getTotal() {
+            return total;
+        }
+    }
+
+    // the documents score() found for one phrase, and the times for finish()
+    static class Scored {
+        long start, tokenized, gathered, scored;
+        int count;
+        long postings;
+        boolean partial;
+        InvertedIndex.Doc[] docs = new InvertedIndex.Doc[0];
+        double[] scores = new double[0];
+        int[] ids;                               // while scoring: document number of each hit
+        double[][] dots;                         // and its sum of qtf * tf per field
+
+        // orders hit i before hit j (negative) by score, then document number
+        int compare(int i, int j) {
+            int c = Double.compare(scores[j], scores[i]);
+            return c != 0 ? c : Integer.compare(docs[i].id, docs[j].id);
+        }
+    }
+
+    // a single search result: the article and its score for the phrase
+    public static class Hit {
+        private final Article article;
+        private final double score;
+
+        public Hit(Article article, double score) {
+            this.article = article;
+            this.score = score;
+        }
+
+        public Article getArticle() {
+            return article;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        public String toString() {
+            return article.getTitle() + " (" + score + ")";
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * SearchMetrics.java
+ *
+ * Process-wide instrumentation for searching and loading articles: a
+ * PhaseTimer per phase and a counter per event, exposed over JMX and
+ * optionally dumped to a stream at a fixed interval.
+ *
+ * Recording never allocates. When metrics are disabled (the default),
+ * callers skip System.nanoTime entirely, so the cost is one volatile read
+ * per call site. Enable with -Dminisearch.metrics=true, or at runtime via
+ * enable() or the Enabled attribute of the MBean.
+ *
+ * System properties read by configure():
+ *   minisearch.metrics        enable recording (true/false)
+ *   minisearch.metrics.jmx    register the MBeans; defaults to true when recording
+ *                             is enabled, set it to true to be able to switch
+ *                             recording on later over JMX
+ *   minisearch.metrics.dump   dump to standard error every n seconds
+ */
+
+package minisearch;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.*;
+
+public final class SearchMetrics implements SearchMetricsMBean {
+
+    // the phases a query or a load is broken into
+    public enum Phase {
+        QUERY("query"),             // whole of SearchEngine.rank
+        TOKENIZE("tokenize"),       // splitting the phrase into terms
+        CANDIDATES("candidates"),   // walking postings to find and accumulate matching articles
+        SCORE("score"),             // turning accumulated sums into field cosines
+        TOP_K("top_k"),             // maintaining the heap of hits
+        RENDER("render"),           // formatting hits for output
+        READ("read"),               // parsing an article file
+        INSERT("insert"),           // adding an article to the ArticleTable
+        INDEX("index");             // adding an article to the InvertedIndex
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        public String label() {
+            return label;
+        }
+    }
+
+    public enum Counter {
+        QUERIES("queries"),
+        DOCS_SCORED("docs_scored"),
+        POSTINGS_DECODED("postings_decoded"),
+        HITS("hits"),
+        ARTICLES_READ("articles_read"),
+        ARTICLES_INSERTED("articles_inserted"),
+        NEAR_DUPLICATES("near_duplicates"),
+        PARTIAL_RESULTS("partial_results"),
+        TERMS_DROPPED("terms_dropped"),           // clauses left out under QueryBudget maxDf
+        DOC_AT_A_TIME("doc_at_a_time");           // searches that merged postings by document
+
+        private final String label;
+
+        Counter(String label) {
+            this.label = label;
+        }
+
+        public String label() {
+            return label;
+        }
+    }
+
+    // cached, since values() copies the array on every call
+    private static final Phase[] PHASES = Phase.values();
+    private static final Counter[] COUNTERS = Counter.values();
+
+    private static final PhaseTimer[] timers = new PhaseTimer[PHASES.length];
+    private static final LongAdder[] counters = new LongAdder[COUNTERS.length];
+    static {
+        for(int i = 0; i < PHASES.length; i++)
+            timers[i] = new PhaseTimer(PHASES[i].label());
+        for(int i = 0; i < COUNTERS.length; i++)
+            counters[i] = new LongAdder();
+    }
+
+    private static volatile boolean enabled = Boolean.getBoolean("minisearch.metrics");
+    private static boolean registered;
+    private static ScheduledExecutorService dumper;
+
+    private static final SearchMetrics INSTANCE = new SearchMetrics();
+
+    private SearchMetrics() { }
+
+    public static boolean enabled() {
+        return enabled;
+    }
+
+    // turn recording on or off from code (the MBean's Enabled attribute does the same)
+    public static void enable(boolean on) {
+        enabled = on;
+    }
+
+    /*
+     * Recording
+     */
+
+    // returns a start time for stop(), or 0 if metrics are disabled
+    public static long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    // records the time since start (a value from start()) against phase p
+    public static void stop(Phase p, long start) {
+        if(start != 0L)
+            timers[p.ordinal()].record(System.nanoTime() - start);
+    }
+
+    // records an already measured duration against phase p
+    public static void record(Phase p, long nanos) {
+        if(enabled)
+            timers[p.ordinal()].record(nanos);
+    }
+
+    public static void increment(Counter c) {
+        if(enabled)
+            counters[c.ordinal()].increment();
+    }
+
+    public static void add(Counter c, long n) {
+        if(enabled)
+            counters[c.ordinal()].add(n);
+    }
+
+    /*
+     * Reading
+     */
+
+    public static PhaseTimer timer(Phase p) {
+        return timers[p.ordinal()];
+    }
+
+    public static long count(Counter c) {
+        return counters[c.ordinal()].sum();
+    }
+
+    public static void resetAll() {
+        for(PhaseTimer t : timers)
+            t.reset();
+        for(LongAdder c : counters)
+            c.reset();
+    }
+
+    // a table of every phase followed by the counters
+    public static String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-12s %10s %12s %10s %10s %10s %10s %10s%n",
+                                "phase", "count", "total ms", "mean us", "p50 us", "p95 us", "p99 us", "max us"));
+        for(PhaseTimer t : timers) {
+            if(t.getCount() == 0)
+                continue;
+            sb.append(String.format("%-12s %10d %12.3f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                                    t.getName(), t.getCount(), t.getTotalMillis(), t.getMeanMicros(),
+                                    t.getP50Micros(), t.getP95Micros(), t.getP99Micros(), t.getMaxMicros()));
+        }
+        for(int i = 0; i < COUNTERS.length; i++)
+            sb.append(i == 0 ? "counters: " : ", ").append(COUNTERS[i].label()).append('=').append(counters[i].sum());
+        sb.append(String.format("%n"));
+        return sb.toString();
+    }
+
+    /*
+     * Setup
+     */
+
+    // apply the minisearch.metrics* system properties; called once from each main
+    public static void configure() {
+        String jmx = System.getProperty("minisearch.metrics.jmx");
+        if("true".equals(jmx) || (enabled && !"false".equals(jmx)))
+            registerMBeans();
+        long period = Long.getLong("minisearch.metrics.dump", 0L);
+        if(enabled && period > 0)
+            startPeriodicDump(period, System.err);
+    }
+
+    // register the counters and one PhaseTimer per phase with the platform MBean server
+    public static synchronized void registerMBeans() {
+        if(registered)
+            return;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(INSTANCE, new ObjectName("minisearch:type=SearchMetrics,name=counters"));
+            for(PhaseTimer t : timers)
+                server.registerMBean(t, new ObjectName("minisearch:type=SearchMetrics,phase=" + t.getName()));
+            registered = true;
+        } catch (JMException e) {
+            throw new IllegalStateException("could not register metrics MBeans", e);
+        }
+    }
+
+    // print report() to out every periodSeconds, on a daemon thread
+    public static synchronized void startPeriodicDump(long periodSeconds, final PrintStream out) {
+        if(dumper != null)
+            dumper.shutdownNow();
+        dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "metrics-dump");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        dumper.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                out.print(report());
+                out.flush();
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /*
+     * SearchMetricsMBean
+     */
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    public long getQueries() {
+        return count(Counter.QUERIES);
+    }
+
+    public long getDocsScored() {
+        return count(Counter.DOCS_SCORED);
+    }
+
+    public long getPostingsDecoded() {
+        return count(Counter.POSTINGS_DECODED);
+    }
+
+    public long getHits() {
+        return count(Counter.HITS);
+    }
+
+    public long getArticlesRead() {
+        return count(Counter.ARTICLES_READ);
+    }
+
+    public long getArticlesInserted() {
+        return count(Counter.ARTICLES_INSERTED);
+    }
+
+    public long getNearDuplicates() {
+        return count(Counter.NEAR_DUPLICATES);
+    }
+
+    public long getPartialResults() {
+        return count(Counter.PARTIAL_RESULTS);
+    }
+
+    public long getTermsDropped() {
+        return count(Counter.TERMS_DROPPED);
+    }
+
+    public long getDocAtATime() {
+        return count(Counter.DOC_AT_A_TIME);
+    }
+
+    public void reset() {
+        resetAll();
+    }
+
+    public String dump() {
+        return report();
+    }
+}
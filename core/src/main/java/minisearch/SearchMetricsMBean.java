@@ -0,0 +1,42 @@
+/*
+ * SearchMetricsMBean.java
+ *
+ * JMX view of the counters in SearchMetrics, registered as
+ * minisearch:type=SearchMetrics,name=counters. The per-phase timings
+ * are registered separately, see PhaseTimerMBean.
+ */
+
+package minisearch;
+
+public interface SearchMetricsMBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getQueries();
+
+    long getDocsScored();
+
+    long getPostingsDecoded();
+
+    long getHits();
+
+    long getArticlesRead();
+
+    long getArticlesInserted();
+
+    long getNearDuplicates();
+
+    long getPartialResults();
+
+    long getTermsDropped();
+
+    long getDocAtATime();
+
+    // resets counters and every phase timer
+    void reset();
+
+    // same text as the periodic dump
+    String dump();
+}
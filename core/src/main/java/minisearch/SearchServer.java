@@ -0,0 +1,459 @@
+/*
+ * SearchServer.java
+ *
+ * Serves the article database over HTTP using the JDK's built-in
+ * com.sun.net.httpserver, as an alternative to the console menu in
+ * MiniSearch. Each request runs on its own virtual thread when the JVM
+ * has them (Java 21+), otherwise on a thread from a cached pool.
+ *
+ *   GET    /search?q=phrase[&k=3]   ranked hits as JSON, with the "total" number of hits,
+ *                                   a "next" cursor for the k after them (SearchEngine.page),
+ *                                   and "partial": true if the search ran out of budget
+ *          [&offset=n | &after=c]   the k hits after the first n, or after cursor c
+ *          [&stream=true]           instead, one JSON line of hits each time the best k improve
+ *                                   while the articles are scored (SearchEngine.stream), every
+ *                                   line but the last with "partial": true; 400 with offset or after
+ *   GET    /related?title=t[&k=5]   articles most like the one titled t, 404 if missing
+ *   GET    /article?title=t         the article as JSON, 404 if missing
+ *   POST   /article                 add {"title": ..., "body": ...}; 409 if the title exists
+ *                                   (or the body duplicates another article, see NearDuplicateDetector)
+ *   DELETE /article?title=t         remove an article, 404 if missing
+ *   POST   /bulk                    apply JSON lines of additions and deletions in one
+ *                                   batch (see BulkUpdate); returns the counts
+ *   GET    /memory                  estimated heap use per structure (MemoryReport)
+ *
+ * Responses are written with chunked encoding as they are produced, so a
+ * long article body is never held in memory twice.
+ *
+ * With -watch, article files added to, changed in or removed from the
+ * database folder are applied while the server runs (DirectoryWatcher).
+ * With -Dminisearch.wal=dir, changes are logged durably (MutationLog)
+ * before they are acknowledged, and recovered on the next start.
+ *
+ * With -shard i/n it serves only the articles whose titles fall in shard i
+ * of n (see SearchCoordinator, which starts one such server per shard).
+ *
+ * usage: java minisearch.SearchServer [-db dir] [-port n] [-watch] [-shard i/n]
+ */
+
+package minisearch;
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class SearchServer {
+
+    static final int MAX_K = 100;
+
+    private final SearchEngine E;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public SearchServer(SearchEngine E, int port) throws IOException {
+        this.E = E;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/search", new HttpHandler() {
+            public void handle(HttpExchange ex) throws IOException {
+                serve(ex, "search");
+            }
+        });
+        server.createContext("/related", new HttpHandler() {
+            public void handle(HttpExchange ex) throws IOException {
+                serve(ex, "related");
+            }
+        });
+        server.createContext("/article", new HttpHandler() {
+            public void handle(HttpExchange ex) throws IOException {
+                serve(ex, "article");
+            }
+        });
+        server.createContext("/bulk", new HttpHandler() {
+            public void handle(HttpExchange ex) throws IOException {
+                serve(ex, "bulk");
+            }
+        });
+        server.createContext("/memory", new HttpHandler() {
+            public void handle(HttpExchange ex) throws IOException {
+                serve(ex, "memory");
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    // stop accepting requests, waiting up to delaySeconds for running ones to finish
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // one virtual thread per request if the JVM supports them, else a cached pool
+    static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(new ThreadFactory() {
+                private int n;
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "http-" + (n++));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+    }
+
+    // dispatch on path and method; errors are reported as {"error": ...}, or
+    // only logged once the response has begun (see error())
+    private void serve(HttpExchange ex, String context) throws IOException {
+        try {
+            String method = ex.getRequestMethod();
+            Map<String, String> params = queryParams(ex);
+            if(context.equals("search") && method.equals("GET"))
+                search(ex, params);
+            else if(context.equals("related") && method.equals("GET"))
+                related(ex, params);
+            else if(context.equals("article") && method.equals("GET"))
+                lookup(ex, params);
+            else if(context.equals("article") && method.equals("POST"))
+                add(ex);
+            else if(context.equals("article") && method.equals("DELETE"))
+                delete(ex, params);
+            else if(context.equals("bulk") && method.equals("POST"))
+                bulk(ex);
+            else if(context.equals("memory") && method.equals("GET")) {
+                Writer w = beginJson(ex, 200);
+                w.write(MemoryReport.of(E).toJson());
+                w.flush();
+            } else
+                error(ex, 405, "method not allowed");
+        } catch (IllegalArgumentException e) {
+            error(ex, 400, e.getMessage());
+        } catch (RuntimeException e) {
+            error(ex, 500, String.valueOf(e));
+        } finally {
+            ex.close();
+        }
+    }
+
+    private void search(HttpExchange ex, Map<String, String> params) throws IOException {
+        String q = required(params, "q");
+        int k = intParam(params, "k", 3);
+        String after = params.get("after");
+        String offset = params.get("offset");
+        if("true".equals(params.get("stream"))) {
+            if(after != null || offset != null)
+                throw new IllegalArgumentException("stream=true does not take offset or after");
+            stream(ex, q, k);
+            return;
+        }
+        if(E.getVectorIndex() != null && after == null && offset == null) {
+            SearchEngine.Hits hits = E.search(q, k);        // approximate, no pages
+            writeHits(ex, "query", q, hits, hits.isPartial() ? ",\"partial\":true" : "");
+            return;
+        }
+        SearchEngine.Page page = after != null ? E.page(q, after, k) : E.page(q, offsetParam(offset), k);
+        writeHits(ex, "query", q, page, ",\"total\":" + page.getTotal() +
+                  (page.getNext() != null ? ",\"next\":" + Json.quote(page.getNext()) : "") +
+                  (page.isPartial() ? ",\"partial\":true" : ""));
+    }
+
+    // write each list of hits E.stream() publishes as a line of JSON, asking
+    // for the next only once the line is sent. The search runs on this
+    // request's thread, so a slow client holds up only its own request
+    private void stream(HttpExchange ex, final String q, int k) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", "application/x-ndjson; charset=utf-8");
+        ex.sendResponseHeaders(200, 0);
+        final Writer w = new BufferedWriter(new OutputStreamWriter(ex.getResponseBody(), StandardCharsets.UTF_8));
+        final CompletableFuture<Void> done = new CompletableFuture<Void>();
+        Executor here = new Executor() {
+            public void execute(Runnable r) {
+                r.run();
+            }
+        };
+        E.stream(q, k, here).subscribe(new Flow.Subscriber<SearchEngine.Hits>() {
+            private Flow.Subscription subscription;
+
+            public void onSubscribe(Flow.Subscription s) {
+                subscription = s;
+                s.request(1);
+            }
+
+            public void onNext(SearchEngine.Hits hits) {
+                try {
+                    StringBuilder sb = new StringBuilder();
+                    sb.append("{\"query\":").append(Json.quote(q)).append(",\"hits\":[");
+                    for(int i = 0; i < hits.size(); i++) {
+                        SearchEngine.Hit h = hits.get(i);
+                        sb.append(i > 0 ? "," : "").append("{\"title\":").append(Json.quote(h.getArticle().getTitle()))
+                          .append(",\"score\":").append(Json.number(h.getScore())).append('}');
+                    }
+                    sb.append(']').append(hits.isPartial() ? ",\"partial\":true" : "").append("}\n");
+                    w.write(sb.toString());
+                    w.flush();
+                    subscription.request(1);
+                } catch (IOException e) {
+                    subscription.cancel();       // the client went away
+                    done.completeExceptionally(e);
+                }
+            }
+
+            public void onError(Throwable t) {
+                done.completeExceptionally(t);
+            }
+
+            public void onComplete() {
+                done.complete(null);
+            }
+        });
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            w.write("{\"error\":" + Json.quote(String.valueOf(e.getCause())) + "}\n");
+            w.flush();
+        }
+    }
+
+    private void related(HttpExchange ex, Map<String, String> params) throws IOException {
+        String title = required(params, "title");
+        int k = intParam(params, "k", 5);
+        List<SearchEngine.Hit> hits = E.related(title, k);
+        if(hits == null) {
+            error(ex, 404, "no article titled " + title);
+            return;
+        }
+        writeHits(ex, "title", title, hits, "");
+    }
+
+    // {"<key>": value, "hits": [{"title": ..., "score": ...}, ...]<more>}, where
+    // more holds any further members (",\"name\":value...")
+    private static void writeHits(HttpExchange ex, String key, String value,
+                                  List<SearchEngine.Hit> hits, String more) throws IOException {
+        long start = SearchMetrics.start();
+        Writer w = beginJson(ex, 200);
+        w.write("{" + Json.quote(key) + ":" + Json.quote(value) + ",\"hits\":[");
+        for(int i = 0; i < hits.size(); i++) {
+            SearchEngine.Hit h = hits.get(i);
+            if(i > 0)
+                w.write(',');
+            w.write("{\"title\":" + Json.quote(h.getArticle().getTitle()) +
+                    ",\"score\":" + Json.number(h.getScore()) + "}");
+            w.flush();
+        }
+        w.write("]" + more + "}");
+        w.flush();
+        SearchMetrics.stop(SearchMetrics.Phase.RENDER, start);
+    }
+
+    private void lookup(HttpExchange ex, Map<String, String> params) throws IOException {
+        String title = required(params, "title");
+        Article a = E.lookup(title);
+        if(a == null) {
+            error(ex, 404, "no article titled " + title);
+            return;
+        }
+        Writer w = beginJson(ex, 200);
+        w.write("{\"title\":" + Json.quote(a.getTitle()) + ",\"body\":");
+        w.write(Json.quote(a.getBody()));
+        w.write('}');
+        w.flush();
+    }
+
+    private void add(HttpExchange ex) throws IOException {
+        Map<String, Object> doc = Json.parseObject(readBody(ex));
+        Object title = doc.get("title");
+        Object body = doc.get("body");
+        if(!(title instanceof String) || ((String) title).isEmpty() || !(body instanceof String))
+            throw new IllegalArgumentException("expected {\"title\": string, \"body\": string}");
+
+        if(!E.insert(new Article((String) title, (String) body))) {
+            if(E.lookup((String) title) != null)
+                error(ex, 409, "an article titled " + title + " already exists");
+            else
+                error(ex, 409, "near-duplicate of an existing article");
+            return;
+        }
+        Writer w = beginJson(ex, 201);
+        w.write("{\"added\":" + Json.quote((String) title) + "}");
+        w.flush();
+    }
+
+    private void delete(HttpExchange ex, Map<String, String> params) throws IOException {
+        String title = required(params, "title");
+        if(!E.delete(title)) {
+            error(ex, 404, "no article titled " + title);
+            return;
+        }
+        Writer w = beginJson(ex, 200);
+        w.write("{\"deleted\":" + Json.quote(title) + "}");
+        w.flush();
+    }
+
+    private void bulk(HttpExchange ex) throws IOException {
+        BulkUpdate u = BulkUpdate.parse(new BufferedReader(
+            new InputStreamReader(ex.getRequestBody(), StandardCharsets.UTF_8)));
+        BulkUpdate.Result r = E.apply(u);
+        Writer w = beginJson(ex, 200);
+        w.write(r.toJson());
+        w.flush();
+    }
+
+    /*
+     * Helper Methods
+     */
+
+    // send headers for a chunked JSON response and return a writer on the body
+    static Writer beginJson(HttpExchange ex, int status) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, 0);
+        return new BufferedWriter(new OutputStreamWriter(ex.getResponseBody(), StandardCharsets.UTF_8));
+    }
+
+    // respond with {"error": msg}. If the response has already begun (its
+    // headers are sent, say while hits were being written), the status can
+    // no longer change: the error is logged instead, and the caller's close()
+    // ends the response where it stopped
+    static void error(HttpExchange ex, int status, String msg) throws IOException {
+        if(ex.getResponseCode() != -1) {
+            System.err.println(ex.getRequestMethod() + " " + ex.getRequestURI() + " failed after responding " +
+                               ex.getResponseCode() + ": " + msg);
+            return;
+        }
+        byte[] b = ("{\"error\":" + Json.quote(String.valueOf(msg)) + "}").getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, b.length);
+        ex.getResponseBody().write(b);
+    }
+
+    static String required(Map<String, String> params, String name) {
+        String v = params.get(name);
+        if(v == null || v.isEmpty())
+            throw new IllegalArgumentException("missing parameter '" + name + "'");
+        return v;
+    }
+
+    // optional integer parameter between 1 and MAX_K
+    static int intParam(Map<String, String> params, String name, int dflt) {
+        String v = params.get(name);
+        if(v == null)
+            return dflt;
+        int n;
+        try {
+            n = Integer.parseInt(v);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number");
+        }
+        if(n < 1 || n > MAX_K)
+            throw new IllegalArgumentException(name + " must be between 1 and " + MAX_K);
+        return n;
+    }
+
+    // the offset parameter, a number >= 0 (0 if absent)
+    static int offsetParam(String v) {
+        if(v == null)
+            return 0;
+        try {
+            int n = Integer.parseInt(v);
+            if(n >= 0)
+                return n;
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new IllegalArgumentException("offset must be a number >= 0");
+    }
+
+    static String readBody(HttpExchange ex) throws IOException {
+        InputStream in = ex.getRequestBody();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while((n = in.read(buf)) > 0)
+            out.write(buf, 0, n);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    // decode the URL query string into a map (last value wins)
+    static Map<String, String> queryParams(HttpExchange ex) {
+        Map<String, String> params = new HashMap<String, String>();
+        String raw = ex.getRequestURI().getRawQuery();
+        if(raw == null)
+            return params;
+        for(String pair : raw.split("&")) {
+            if(pair.isEmpty())
+                continue;
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8),
+                       URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    public static void main(String[] args) throws IOException {
+        SearchMetrics.configure();
+        String dbPath = "articles/";
+        int port = 8080;
+        boolean watch = false;
+        int shard = 0, shards = 1;
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].equals("-db") && i + 1 < args.length)
+                dbPath = args[++i];
+            else if(args[i].equals("-port") && i + 1 < args.length)
+                port = Integer.parseInt(args[++i]);
+            else if(args[i].equals("-watch"))
+                watch = true;
+            else if(args[i].equals("-shard") && i + 1 < args.length && args[i + 1].matches("\\d+/\\d+")) {
+                String[] parts = args[++i].split("/");
+                shard = Integer.parseInt(parts[0]);
+                shards = Integer.parseInt(parts[1]);
+            } else {
+                System.err.println("usage: java minisearch.SearchServer [-db dir] [-port n] [-watch] [-shard i/n]");
+                System.exit(2);
+            }
+        }
+
+        if(shards < 1 || shard >= shards || (watch && shards > 1)) {
+            System.err.println("-shard i/n needs 0 <= i < n, and cannot be combined with -watch");
+            System.exit(2);
+        }
+        DatabaseIterator db = shards == 1 ? new DatabaseIterator(dbPath) : new DatabaseIterator(dbPath, shard, shards);
+        MutationLog log = MutationLog.configured();
+        ArticleTable T;
+        if(log != null) {
+            T = log.recover(db);
+            System.out.println("Recovered " + T.size() + " articles from " + log.getDirectory() + ".");
+        } else {
+            T = new ArticleTable();
+            for(int i = 0; i < db.getNumArticles(); i++)
+                T.insert(db.next());
+            System.out.println("Read " + db.getNumArticles() + " articles from disk.");
+        }
+
+        SearchEngine E = new SearchEngine(T);
+        if(log != null)
+            E.setLog(log);
+        if(watch)
+            new DirectoryWatcher(E, dbPath, 250).start();
+        SearchServer s = new SearchServer(E, port);
+        s.start();
+        System.out.println("Listening on http://localhost:" + s.getPort() + "/");
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * SearchStream.java
+ *
+ * A search whose hits are published as they improve instead of all at
+ * the end (see SearchEngine.stream()). The documents are scored in
+ * segments of consecutive document numbers; after each segment that
+ * changes the best k hits, the subscriber receives them as a new Hits
+ * list. Every list but the last is marked partial; the last holds the k
+ * best hits, ordered by score and then document number as in page(). The
+ * engine's QueryBudget covers the whole stream, not each segment: the
+ * segments share one deadline, fixed when the first is scored, and one
+ * count of postings read and documents scored. Once it runs out, the
+ * segments left are skipped and the last list is marked partial.
+ * Approximate search is not used.
+ *
+ * Segments are scored only while the subscriber has requested more
+ * lists, so a slow subscriber holds back the search instead of making it
+ * queue up results. Only the best k hits are kept between segments, and
+ * a Hit refers to its Article without reading its body. As with page
+ * cursors, articles added after the stream starts are not included.
+ *
+ * Each subscriber runs its own search, on the executor given to the
+ * stream; signals to one subscriber never overlap.
+ */
+
+package minisearch;
+
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+class SearchStream implements Flow.Publisher<SearchEngine.Hits> {
+
+    private final SearchEngine E;
+    private final String phrase;
+    private final int k;
+    private final int segment;                   // document numbers per segment
+    private final Executor executor;
+
+    SearchStream(SearchEngine E, String phrase, int k, int segment, Executor executor) {
+        if(k < 1 || segment < 1)
+            throw new IllegalArgumentException("need k >= 1 and segment >= 1");
+        this.E = E;
+        this.phrase = phrase;
+        this.k = k;
+        this.segment = segment;
+        this.executor = executor;
+    }
+
+    public void subscribe(Flow.Subscriber<? super SearchEngine.Hits> subscriber) {
+        Run r = new Run(Objects.requireNonNull(subscriber));
+        subscriber.onSubscribe(r);
+    }
+
+
+    // one subscriber's search. run() does all the work and sends every
+    // signal; wip counts the calls to schedule() it has yet to see, so at
+    // most one run() is active and none is left with work to do
+    private class Run implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super SearchEngine.Hits> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable error;        // to send instead of the next list
+
+        // touched by run() only
+        private boolean done;
+        private int from, limit = -1;            // next segment starts at from; stop at limit
+        private long before;                     // serial of the first document added since the start
+        private boolean partial;                 // the budget ran out, or dropped common terms
+        private QueryBudget budget;              // the engine's when the stream started
+        private long deadline;
+        private int docs;
+        private long postings;
+        private final PriorityQueue<Ranked> best = new PriorityQueue<Ranked>();   // worst first
+
+        Run(Flow.Subscriber<? super SearchEngine.Hits> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        public void request(long n) {
+            if(n <= 0)
+                error = new IllegalArgumentException("request(" + n + "): demand must be positive");
+            else {
+                long d, e;
+                do {
+                    d = demand.get();
+                    e = d + n < 0 ? Long.MAX_VALUE : d + n;
+                } while(!demand.compareAndSet(d, e));
+            }
+            schedule();
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        private void schedule() {
+            if(wip.getAndIncrement() != 0)
+                return;
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                cancelled = true;
+                subscriber.onError(e);
+            }
+        }
+
+        public void run() {
+            int missed = 1;
+            do {
+                try {
+                    while(!done && !cancelled) {
+                        if(error != null) {
+                            done = true;
+                            subscriber.onError(error);
+                        } else if(demand.get() > 0)
+                            step();
+                        else
+                            break;
+                    }
+                } catch (RuntimeException e) {
+                    done = true;
+                    subscriber.onError(e);
+                }
+                missed = wip.addAndGet(-missed);
+            } while(missed != 0);
+        }
+
+        // score the next segment, and send the best hits if they changed
+        private void step() {
+            if(limit < 0) {
+                before = E.getIndex().nextSerial();
+                limit = E.getIndex().maxDocId();
+                budget = E.getBudget();
+                deadline = budget.deadline(budget.getMaxMillis() == 0 ? 0 : System.nanoTime());
+            }
+            int to = (int) Math.min((long) from + segment, limit);
+            boolean changed = false;
+            QueryBudget left = from < to ? budget.remaining(postings, docs) : null;
+            if(from < to && (left == null || (deadline != Long.MAX_VALUE && System.nanoTime() > deadline))) {
+                partial = true;                  // out of budget: skip the segments left
+                to = limit;
+            } else if(from < to) {
+                SearchEngine.Scored s = E.score(phrase, left, deadline, from, to, before);
+                for(int i = 0; i < s.count; i++) {
+                    if(s.docs[i] != null && s.scores[i] != 0.0)
+                        changed |= offer(new Ranked(s.scores[i], s.docs[i]));
+                }
+                partial |= s.partial;
+                docs += s.count;
+                postings += s.postings;
+            }
+            from = to;
+            boolean last = from >= limit;
+            if(changed || last) {
+                SearchEngine.Hits hits = hits(!last || partial);
+                demand.decrementAndGet();
+                subscriber.onNext(hits);
+                if(last) {
+                    SearchMetrics.increment(SearchMetrics.Counter.QUERIES);
+                    SearchMetrics.add(SearchMetrics.Counter.DOCS_SCORED, docs);
+                    SearchMetrics.add(SearchMetrics.Counter.POSTINGS_DECODED, postings);
+                    SearchMetrics.add(SearchMetrics.Counter.HITS, hits.size());
+                }
+            }
+            if(last) {
+                done = true;
+                subscriber.onComplete();
+            }
+        }
+
+        // keep r if it is among the k best so far
+        private boolean offer(Ranked r) {
+            if(best.size() < k) {
+                best.add(r);
+                return true;
+            }
+            if(r.compareTo(best.peek()) <= 0)
+                return false;
+            best.poll();
+            best.add(r);
+            return true;
+        }
+
+        // the best hits so far, best first
+        private SearchEngine.Hits hits(boolean partial) {
+            Ranked[] rs = best.toArray(new Ranked[best.size()]);
+            Arrays.sort(rs, Collections.reverseOrder());
+            SearchEngine.Hits hits = new SearchEngine.Hits();
+            for(Ranked r : rs)
+                hits.add(new SearchEngine.Hit(r.doc.article, r.score));
+            hits.partial = partial;
+            return hits;
+        }
+    }
+
+    // a scored document, ordered worst first: by score, then by higher document number
+    private static class Ranked implements Comparable<Ranked> {
+        final double score;
+        final InvertedIndex.Doc doc;
+
+        Ranked(double score, InvertedIndex.Doc doc) {
+            this.score = score;
+            this.doc = doc;
+        }
+
+        public int compareTo(Ranked o) {
+            int c = Double.compare(score, o.score);
+            return c != 0 ? c : Integer.compare(o.doc.id, doc.id);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * SimdKernel.java
+ *
+ * VectorKernel using the JDK Vector API. Compiled against the
+ * jdk.incubator.vector module; VectorKernel only loads it by name, and
+ * falls back to scalar code when the module is missing at run time.
+ */
+
+package minisearch;
+
+import jdk.incubator.vector.*;
+
+class SimdKernel extends VectorKernel {
+
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    // int8 products are summed in int lanes, so bytes are loaded as many at a
+    // time as there are int lanes and widened
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTES =
+        VectorSpecies.of(byte.class, VectorShape.forBitSize(INTS.length() * 8));
+
+    public String name() {
+        return "simd (" + FLOATS.length() + " floats per vector)";
+    }
+
+    public float dot(float[] a, float[] b) {
+        FloatVector acc = FloatVector.zero(FLOATS);
+        int i = 0;
+        int bound = FLOATS.loopBound(a.length);
+        for(; i < bound; i += FLOATS.length())
+            acc = FloatVector.fromArray(FLOATS, a, i).fma(FloatVector.fromArray(FLOATS, b, i), acc);
+        float s = acc.reduceLanes(VectorOperators.ADD);
+        for(; i < a.length; i++)
+            s += a[i] * b[i];
+        return s;
+    }
+
+    public int dot(byte[] a, byte[] b) {
+        IntVector acc = IntVector.zero(INTS);
+        int i = 0;
+        int bound = BYTES.loopBound(a.length);
+        for(; i < bound; i += BYTES.length()) {
+            IntVector x = (IntVector) ByteVector.fromArray(BYTES, a, i).castShape(INTS, 0);
+            IntVector y = (IntVector) ByteVector.fromArray(BYTES, b, i).castShape(INTS, 0);
+            acc = acc.add(x.mul(y));
+        }
+        int s = acc.reduceLanes(VectorOperators.ADD);
+        for(; i < a.length; i++)
+            s += a[i] * b[i];
+        return s;
+    }
+}
@@ -8,6 +8,10 @@
  * cosine similarity calculations
  */
 
+package minisearch;
+
+import java.util.*;
+
 public class TermFrequencyTable {
     
     private int M = 179;                 // slightly larger prime used to accomodate blacklist
@@ -18,7 +22,7 @@ public class TermFrequencyTable {
     private int C;             // counter to keep track of how many Nodes iterator has traversed
     private int R;             // keep track of what row in table iterator is on
     
-    private final String [] blackList = { "the", "of", "and", "a", "to", "in", "is", 
+    private static final String [] blackList = { "the", "of", "and", "a", "to", "in", "is", 
     "you", "that", "it", "he", "was", "for", "on", "are", "as", "with", 
     "his", "they", "i", "at", "be", "this", "have", "from", "or", "one", 
     "had", "by", "word", "but", "not", "what", "all", "were", "we", "when", 
@@ -30,6 +34,8 @@ public class TermFrequencyTable {
     "been", "call", "who", "oil", "its", "now", "find", "long", "down", "day", 
     "did", "get", "come", "made", "may", "part" }; 
     
+    private static final Set<String> blackListSet = new HashSet<String>(Arrays.asList(blackList));
+    
     public void initialize(String s1, String s2) {
         // start by inserting all the terms from the blacklist (set blacklist flag to true).
         // much more efficient than having to iterate through the the blacklist to check for every single term when
@@ -49,17 +55,26 @@ public class TermFrequencyTable {
     
     // create a new string consisting of only letters and whitespace from s and turn to lowercase
     private static String preprocess(String s) {
-        String temp = "";
-        Character c;
+        StringBuilder temp = new StringBuilder(s.length());
+        char c;
         for(int i = 0; i < s.length(); i++) {
             c = s.charAt(i);
             if(Character.isWhitespace(c) || Character.isLetter(c))
-                temp += c;
+                temp.append(c);
         }
         
-        temp = temp.toLowerCase();
-        
-        return temp;
+        return temp.toString().toLowerCase();
+    }
+    
+    // the terms of s, split exactly as initialize does (blacklisted terms included),
+    // so that InvertedIndex scores agree with cosineSimilarity
+    public static String[] terms(String s) {
+        return preprocess(s).split("\\s");
+    }
+    
+    // is term in the blacklist? such terms are left out of cosine similarity
+    public static boolean isBlackListed(String term) {
+        return blackListSet.contains(term);
     }
     
     // insert a term from a document docNum (= 0 or 1) into the table; if the term is not already present, add it
@@ -0,0 +1,484 @@
+/*
+ * VectorIndex.java
+ *
+ * Approximate nearest neighbor retrieval over fixed-size document vectors,
+ * as an alternative to scoring every document that shares a term with the
+ * phrase (see SearchEngine.searchApproximate).
+ *
+ * A document's vector is a random projection of its body's term frequency
+ * vector: every term is given a pseudo-random vector of +1/-1 entries
+ * derived from a hash of the term and a seed, and a document's vector is
+ * the sum of its terms' vectors weighted by term frequency, scaled to unit
+ * length. Random projections roughly preserve dot products
+ * (Johnson-Lindenstrauss), so documents near a phrase's vector tend to be
+ * the ones with the highest cosine similarity to it. Plain term
+ * frequencies are used, rather than tf-idf, because that is what search
+ * scores measure (tf-idf vectors found noticeably fewer of the exact top
+ * hits). Nothing is learned and nothing outside the corpus is used.
+ *
+ * The vectors are kept in an HnswGraph. Searches return the ef nearest
+ * documents, which SearchEngine then scores exactly, so scores are always
+ * exact and only the choice of candidates is approximate.
+ *
+ * HNSW cannot take nodes out, so a removed document's node stays in the
+ * graph, skipped by searches but still visited on the way to live ones.
+ * SearchEngine reports removals (remove) and, once a third of the nodes
+ * are dead (wantsRebuild), builds a fresh graph over the live documents
+ * (rebuilt) and swaps it in. The rebuild costs about as much as the
+ * removals that led to it cost searches, and keeps both the graph's size
+ * and its recall from drifting.
+ *
+ * The graph can be saved and loaded again. Nodes are stored with their
+ * article's title and a hash of its body, and matched to the current index
+ * by both when loaded: nodes of articles removed or changed since are dead
+ * (changed ones get a new node), articles added since are added.
+ *
+ * Run main to compare recall and latency against exact search:
+ *
+ * usage: java minisearch.VectorIndex [-db dir] [-dim n] [-M n] [-efc n] [-ef n,n,...]
+ *                         [-k hits] [-queries n] [-save file | -load file]
+ */
+
+package minisearch;
+
+import java.io.*;
+import java.util.*;
+
+public class VectorIndex {
+
+    private static final int MAGIC = 0x4d534856;    // "MSHV"
+    private static final int VERSION = 2;
+
+    private final InvertedIndex index;
+    private final HnswGraph graph;
+    private final long seed;
+    private volatile int ef = 100;
+
+    // node -> doc id, serial number and title. Entries are written before the
+    // node is added to the graph, whose lock publishes them to searches that
+    // find the node; the arrays are replaced when they grow, so searches must
+    // read the fields again under (or after) that lock, not before it. A node
+    // stands for its document only while the id still holds that serial: ids
+    // of removed documents are reused (see InvertedIndex)
+    private volatile int[] docOf = new int[64];
+    private volatile long[] serialOf = new long[64];
+    private volatile String[] titleOf = new String[64];
+    private long[] covered = new long[64];       // doc id -> serial of the document with a node there, 0 if none
+    private int dead;                            // nodes no longer standing for a document
+
+    // fewest dead nodes worth a rebuild
+    private static final int REBUILD_MIN = 64;
+
+    public VectorIndex(InvertedIndex index, int dim, int M, int efConstruction, long seed) {
+        this(index, new HnswGraph(dim, M, efConstruction, seed), seed);
+    }
+
+    private VectorIndex(InvertedIndex index, HnswGraph graph, long seed) {
+        this.index = index;
+        this.graph = graph;
+        this.seed = seed;
+    }
+
+    public HnswGraph getGraph() {
+        return graph;
+    }
+
+    // number of candidates a search collects; at least k is always used
+    public void setEf(int ef) {
+        if(ef < 1)
+            throw new IllegalArgumentException("ef must be at least 1");
+        this.ef = ef;
+    }
+
+    public int getEf() {
+        return ef;
+    }
+
+    // add every live document of the index that has no node yet, and count
+    // again the nodes of documents removed without being reported
+    public void addAll() {
+        for(int id = 0; id < index.maxDocId(); id++) {
+            InvertedIndex.Doc d = index.doc(id);
+            if(d != null)
+                add(d);
+        }
+        int n = graph.size();
+        dead = 0;
+        for(int node = 0; node < n; node++) {
+            InvertedIndex.Doc d = docOf[node] < 0 ? null : index.doc(docOf[node]);
+            if(d == null || d.serial != serialOf[node])
+                dead++;
+        }
+    }
+
+    // the document d is about to be removed from the index: its node, if
+    // any, is dead from now on
+    public void remove(InvertedIndex.Doc d) {
+        if(d != null && d.id < covered.length && covered[d.id] == d.serial) {
+            covered[d.id] = 0;
+            dead++;
+        }
+    }
+
+    // nodes standing for removed documents
+    public int deadNodes() {
+        return dead;
+    }
+
+    // true once a third of the nodes are dead: searches then spend a good part
+    // of their visits on nodes they must skip, and the graph holds that many
+    // vectors for nothing
+    public boolean wantsRebuild() {
+        return dead >= REBUILD_MIN && dead * 3L >= graph.size();
+    }
+
+    // a new index with the same parameters over the live documents only
+    public VectorIndex rebuilt() {
+        VectorIndex v = new VectorIndex(index, graph.dimension(), graph.getM(), graph.getEfConstruction(), seed);
+        v.setEf(ef);
+        v.addAll();
+        return v;
+    }
+
+    // add a document; does nothing if it has no body terms or already has a node
+    public void add(InvertedIndex.Doc d) {
+        if(d.id < covered.length && covered[d.id] == d.serial)
+            return;
+        int F = InvertedIndex.BODY;
+        String[] terms = new String[d.termCount(F)];
+        int[] tfs = new int[terms.length];
+        for(int i = 0; i < terms.length; i++) {
+            terms[i] = d.term(F, i);
+            tfs[i] = d.tf(F, i);
+        }
+        float[] v = project(terms, tfs);
+        if(v == null)
+            return;
+        add(v, d.id, d.serial, d.article.getTitle());
+    }
+
+    private void add(float[] v, int id, long serial, String title) {
+        int node = graph.size();
+        if(node == docOf.length) {
+            docOf = Arrays.copyOf(docOf, node * 2);
+            serialOf = Arrays.copyOf(serialOf, node * 2);
+            titleOf = Arrays.copyOf(titleOf, node * 2);
+        }
+        docOf[node] = id;
+        serialOf[node] = serial;
+        titleOf[node] = title;
+        cover(id, serial);
+        graph.add(v);
+    }
+
+    private void cover(int id, long serial) {
+        if(id < 0)
+            return;
+        if(id >= covered.length)
+            covered = Arrays.copyOf(covered, Math.max(id + 1, covered.length * 2));
+        covered[id] = serial;
+    }
+
+    // ids of up to max(ef, k) live documents whose vectors are nearest the
+    // phrase's, most similar first
+    public int[] candidates(String phrase, int k) {
+        Map<String, Integer> q = InvertedIndex.termFrequencies(phrase);
+        String[] terms = new String[q.size()];
+        int[] tfs = new int[terms.length];
+        int i = 0;
+        for(Map.Entry<String, Integer> e : q.entrySet()) {
+            terms[i] = e.getKey();
+            tfs[i++] = e.getValue();
+        }
+        float[] v = project(terms, tfs);
+        if(v == null)
+            return new int[0];
+
+        List<HnswGraph.Candidate> found = graph.search(v, Math.max(ef, k), new HnswGraph.NodeFilter() {
+            public boolean accept(int node) {
+                InvertedIndex.Doc d = index.doc(docOf[node]);
+                return d != null && d.serial == serialOf[node];
+            }
+        });
+        int[] docs = docOf;                      // holds every node the search found
+        int[] ids = new int[found.size()];
+        for(i = 0; i < ids.length; i++)
+            ids[i] = docs[found.get(i).node];
+        return ids;
+    }
+
+    // the unit-length projection of the term frequency vector with these
+    // body terms, or null if none of them is in the index
+    float[] project(String[] terms, int[] tfs) {
+        int dim = graph.dimension();
+        double[] sum = new double[dim];
+        boolean any = false;
+        for(int t = 0; t < terms.length; t++) {
+            InvertedIndex.Postings p = index.postings(InvertedIndex.BODY, terms[t]);
+            if(p == null)
+                continue;
+            any = true;
+            int w = tfs[t];
+            SplittableRandom r = new SplittableRandom(hash64(terms[t]) ^ seed);
+            long bits = 0;
+            for(int i = 0; i < dim; i++) {
+                if((i & 63) == 0)
+                    bits = r.nextLong();
+                sum[i] += (bits & 1) != 0 ? w : -w;
+                bits >>>= 1;
+            }
+        }
+        if(!any)
+            return null;
+        double norm = 0;
+        for(double x : sum)
+            norm += x * x;
+        norm = Math.sqrt(norm);
+        float[] v = new float[dim];
+        for(int i = 0; i < dim; i++)
+            v[i] = (float) (sum[i] / norm);
+        return v;
+    }
+
+    // 64-bit FNV-1a over the characters of s
+    private static long hash64(String s) {
+        long h = 0xcbf29ce484222325L;
+        for(int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // add the node tables and the graph to r
+    void footprint(MemoryReport r) {
+        int n = graph.size();
+        long titles = MemoryReport.array(docOf.length, 4) + MemoryReport.refArray(titleOf.length) +
+                      MemoryReport.array(serialOf.length, 8) + MemoryReport.array(covered.length, 8);
+        for(int node = 0; node < n; node++)
+            titles += MemoryReport.string(titleOf[node]);
+        r.add("VectorIndex", "node -> document (" + dead + " dead)", n, titles);
+        graph.footprint(r);
+    }
+
+    /*
+     * Persistence
+     */
+
+    public void save(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(seed);
+            graph.write(out);
+            int n = graph.size();
+            for(int node = 0; node < n; node++) {
+                InvertedIndex.Doc d = docOf[node] < 0 ? null : index.doc(docOf[node]);
+                out.writeUTF(titleOf[node]);
+                out.writeLong(d != null && d.serial == serialOf[node] ? hash64(d.article.getBody()) : 0);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    // load a saved graph and match its nodes to the articles now in index by
+    // title and body; articles indexed or changed since it was saved are added
+    // to it
+    public static VectorIndex load(File file, InvertedIndex index) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException(file + " is not a saved VectorIndex");
+            long seed = in.readLong();
+            VectorIndex v = new VectorIndex(index, HnswGraph.read(in, seed), seed);
+            int n = v.graph.size();
+            v.docOf = new int[Math.max(64, n)];
+            v.serialOf = new long[v.docOf.length];
+            v.titleOf = new String[v.docOf.length];
+            for(int node = 0; node < n; node++) {
+                String title = in.readUTF();
+                long body = in.readLong();
+                InvertedIndex.Doc d = index.doc(index.docId(title));
+                if(d != null && (body == 0 || hash64(d.article.getBody()) != body))
+                    d = null;                    // removed when saved, or changed since
+                v.titleOf[node] = title;
+                v.docOf[node] = d == null ? -1 : d.id;
+                if(d != null) {
+                    v.serialOf[node] = d.serial;
+                    v.cover(d.id, d.serial);
+                }
+            }
+            v.addAll();
+            return v;
+        } finally {
+            in.close();
+        }
+    }
+
+    /*
+     * Recall and latency against exact search
+     */
+
+    public static void main(String[] args) throws IOException {
+        String dbPath = "articles/";
+        int dim = 512, M = 16, efc = 100, k = 10, nQueries = 500;
+        int[] efs = { 25, 50, 100, 200, 400 };
+        String save = null, load = null;
+        for(int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if(i + 1 == args.length) {
+                usage();
+            } else if(arg.equals("-db")) {
+                dbPath = args[++i];
+            } else if(arg.equals("-dim")) {
+                dim = Integer.parseInt(args[++i]);
+            } else if(arg.equals("-M")) {
+                M = Integer.parseInt(args[++i]);
+            } else if(arg.equals("-efc")) {
+                efc = Integer.parseInt(args[++i]);
+            } else if(arg.equals("-k")) {
+                k = Integer.parseInt(args[++i]);
+            } else if(arg.equals("-queries")) {
+                nQueries = Integer.parseInt(args[++i]);
+            } else if(arg.equals("-save")) {
+                save = args[++i];
+            } else if(arg.equals("-load")) {
+                load = args[++i];
+            } else if(arg.equals("-ef")) {
+                String[] s = args[++i].split(",");
+                efs = new int[s.length];
+                for(int j = 0; j < s.length; j++)
+                    efs[j] = Integer.parseInt(s[j].trim());
+            } else {
+                usage();
+            }
+        }
+
+        DatabaseIterator db = new DatabaseIterator(dbPath);
+        ArticleTable T = new ArticleTable();
+        for(int i = 0; i < db.getNumArticles(); i++)
+            T.insert(db.next());
+        SearchEngine E = new SearchEngine(T);
+        E.setBoosts(1.0, 0.0);                   // body only: exact scores are cosineSimilarity
+        InvertedIndex index = E.getIndex();
+        System.out.println("Read " + T.size() + " articles from disk.");
+
+        long t0 = System.nanoTime();
+        VectorIndex v;
+        if(load != null) {
+            v = load(new File(load), index);
+            System.out.printf("loaded graph of %d nodes from %s in %.1f ms%n",
+                              v.graph.size(), load, (System.nanoTime() - t0) / 1e6);
+        } else {
+            v = new VectorIndex(index, dim, M, efc, 42);
+            v.addAll();
+            System.out.printf("built graph of %d nodes (dim %d, M %d, efConstruction %d) in %.1f ms%n",
+                              v.graph.size(), dim, M, efc, (System.nanoTime() - t0) / 1e6);
+            System.out.println("dot products: " + VectorKernel.get().name());
+        }
+        if(save != null) {
+            v.save(new File(save));
+            System.out.println("saved to " + save + " (" + new File(save).length() + " bytes)");
+        }
+        E.setVectorIndex(v);
+
+        // queries: one to three body terms of random articles
+        List<String> queries = sampleQueries(index, nQueries, new Random(7));
+
+        // exact results, checked against the brute-force cosine for the top hit
+        List<List<SearchEngine.Hit>> exact = new ArrayList<List<SearchEngine.Hit>>();
+        long[] exactNanos = new long[queries.size()];
+        for(int r = 0; r < 2; r++) {             // first round warms up the JIT
+            exact.clear();
+            for(int i = 0; i < queries.size(); i++) {
+                long s = System.nanoTime();
+                exact.add(E.searchExact(queries.get(i), k));
+                exactNanos[i] = System.nanoTime() - s;
+            }
+        }
+        for(int i = 0; i < Math.min(50, queries.size()); i++) {
+            List<SearchEngine.Hit> hits = exact.get(i);
+            if(hits.isEmpty())
+                continue;
+            double oracle = SearchEngine.cosineSimilarity(queries.get(i), hits.get(0).getArticle().getBody());
+            if(Math.abs(oracle - hits.get(0).getScore()) > 1e-9)
+                throw new AssertionError("exact search disagrees with cosineSimilarity for " + queries.get(i));
+        }
+
+        System.out.println();
+        System.out.printf("%-8s %10s %12s %12s%n", "ef", "recall@" + k, "mean", "p95");
+        System.out.printf("%-8s %10s %12s %12s%n", "exact", "1.000",
+                          millis(mean(exactNanos)), millis(percentile(exactNanos, 95)));
+        for(int ef : efs) {
+            v.setEf(ef);
+            long[] nanos = new long[queries.size()];
+            double recall = 0;
+            for(int r = 0; r < 2; r++) {
+                recall = 0;
+                for(int i = 0; i < queries.size(); i++) {
+                    long s = System.nanoTime();
+                    List<SearchEngine.Hit> hits = E.searchApproximate(queries.get(i), k);
+                    nanos[i] = System.nanoTime() - s;
+                    recall += recall(exact.get(i), hits);
+                }
+            }
+            System.out.printf("%-8d %10.3f %12s %12s%n", ef, recall / queries.size(),
+                              millis(mean(nanos)), millis(percentile(nanos, 95)));
+        }
+    }
+
+    private static void usage() {
+        System.err.println("usage: java minisearch.VectorIndex [-db dir] [-dim n] [-M n] [-efc n] " +
+                           "[-ef n,n,...] [-k hits] [-queries n] [-save file | -load file]");
+        System.exit(2);
+    }
+
+    private static List<String> sampleQueries(InvertedIndex index, int n, Random random) {
+        final int F = InvertedIndex.BODY;
+        List<String> queries = new ArrayList<String>(n);
+        while(queries.size() < n) {
+            InvertedIndex.Doc d = index.doc(random.nextInt(index.maxDocId()));
+            if(d == null || d.termCount(F) == 0)
+                continue;
+            StringBuilder sb = new StringBuilder();
+            int words = 1 + random.nextInt(3);
+            for(int i = 0; i < words; i++)
+                sb.append(i == 0 ? "" : " ").append(d.term(F, random.nextInt(d.termCount(F))));
+            queries.add(sb.toString());
+        }
+        return queries;
+    }
+
+    // fraction of the exact top hits matched by the approximate ones. Hits are
+    // compared by score, since documents with equal scores are interchangeable
+    private static double recall(List<SearchEngine.Hit> exact, List<SearchEngine.Hit> approx) {
+        if(exact.isEmpty())
+            return 1.0;
+        double last = exact.get(exact.size() - 1).getScore();
+        int found = 0;
+        for(SearchEngine.Hit h : approx) {
+            if(h.getScore() >= last - 1e-12)
+                found++;
+        }
+        return Math.min(1.0, (double) found / exact.size());
+    }
+
+    private static long mean(long[] a) {
+        long s = 0;
+        for(long x : a)
+            s += x;
+        return a.length == 0 ? 0 : s / a.length;
+    }
+
+    private static long percentile(long[] a, double p) {
+        long[] sorted = a.clone();
+        Arrays.sort(sorted);
+        return BatchSearch.percentile(sorted, p);
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f ms", nanos / 1e6);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * VectorKernel.java
+ *
+ * Dot products over dense float and int8 vectors, such as the document
+ * vectors in HnswGraph. get() returns the implementation chosen at startup:
+ *
+ *   SimdKernel    uses the JDK Vector API (jdk.incubator.vector) to work on
+ *                 as many elements per instruction as the CPU allows (8
+ *                 floats with AVX2, 16 with AVX-512). Only available when
+ *                 the JVM is started with --add-modules jdk.incubator.vector
+ *   Scalar        a plain loop, used otherwise
+ *
+ * -Dminisearch.simd=false forces the scalar loop; the default (auto) uses
+ * SimdKernel when it can be loaded. The two may differ in the last bits of
+ * float results, since they add the products in a different order.
+ */
+
+package minisearch;
+
+public abstract class VectorKernel {
+
+    private static final VectorKernel INSTANCE = select();
+
+    // the kernel in use
+    public static VectorKernel get() {
+        return INSTANCE;
+    }
+
+    public abstract String name();
+
+    // sum of a[i] * b[i]; the arrays must have the same length
+    public abstract float dot(float[] a, float[] b);
+
+    // sum of a[i] * b[i] over signed bytes
+    public abstract int dot(byte[] a, byte[] b);
+
+    public float norm(float[] a) {
+        return (float) Math.sqrt(dot(a, a));
+    }
+
+    private static VectorKernel select() {
+        String mode = System.getProperty("minisearch.simd", "auto");
+        if(mode.equals("false"))
+            return new Scalar();
+        try {
+            // loaded by name so that this class does not need the incubator module
+            return (VectorKernel) Class.forName("minisearch.SimdKernel").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            if(mode.equals("true"))
+                System.err.println("minisearch.simd: Vector API not available (start java with " +
+                                   "--add-modules jdk.incubator.vector), using scalar code");
+            return new Scalar();
+        }
+    }
+
+
+    public static class Scalar extends VectorKernel {
+        public String name() {
+            return "scalar";
+        }
+
+        public float dot(float[] a, float[] b) {
+            float s = 0;
+            for(int i = 0; i < a.length; i++)
+                s += a[i] * b[i];
+            return s;
+        }
+
+        public int dot(byte[] a, byte[] b) {
+            int s = 0;
+            for(int i = 0; i < a.length; i++)
+                s += a[i] * b[i];
+            return s;
+        }
+    }
+
+    // check that the selected kernel agrees with the scalar one
+    public static void main(String[] args) {
+        java.util.Random r = new java.util.Random(1);
+        VectorKernel k = get(), s = new Scalar();
+        System.out.println("kernel: " + k.name());
+        for(int n : new int[] { 0, 1, 7, 16, 33, 512, 1000 }) {
+            float[] a = new float[n], b = new float[n];
+            byte[] x = new byte[n], y = new byte[n];
+            for(int i = 0; i < n; i++) {
+                a[i] = (float) r.nextGaussian();
+                b[i] = (float) r.nextGaussian();
+            }
+            r.nextBytes(x);
+            r.nextBytes(y);
+            if(Math.abs(k.dot(a, b) - s.dot(a, b)) > 1e-3f * Math.max(1, n))
+                throw new AssertionError("float dot differs for n = " + n);
+            if(k.dot(x, y) != s.dot(x, y))
+                throw new AssertionError("int8 dot differs for n = " + n);
+        }
+        System.out.println("ok");
+    }
+}
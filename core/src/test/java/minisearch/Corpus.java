@@ -0,0 +1,58 @@
+/*
+ * Corpus.java
+ *
+ * Made-up articles for the tests, so they need neither the articles/
+ * folder nor articles.zip: titles "Article 0", "Article 1", ... and bodies
+ * of random words from a fixed vocabulary, the same for the same seed.
+ * write() stores them as an article folder DatabaseIterator can read.
+ */
+
+package minisearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+class Corpus {
+
+    private Corpus() { }
+
+    // n articles of 20 to 80 words from a vocabulary of 500
+    static List<Article> generate(int n, long seed) {
+        Random random = new Random(seed);
+        String[] vocabulary = new String[500];
+        for(int i = 0; i < vocabulary.length; i++)
+            vocabulary[i] = word(random);
+        List<Article> articles = new ArrayList<Article>(n);
+        for(int i = 0; i < n; i++) {
+            int words = 20 + random.nextInt(61);
+            StringBuilder body = new StringBuilder();
+            for(int j = 0; j < words; j++)
+                body.append(j == 0 ? "" : j % 12 == 0 ? "\n" : " ").append(vocabulary[random.nextInt(vocabulary.length)]);
+            articles.add(new Article("Article " + i, body.append('\n').toString()));
+        }
+        return articles;
+    }
+
+    // write each article to its own file in dir, title on the first line
+    static File write(File dir, List<Article> articles) throws IOException {
+        if(!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("cannot create " + dir);
+        for(int i = 0; i < articles.size(); i++) {
+            Article a = articles.get(i);
+            Files.write(new File(dir, i + ".txt").toPath(),
+                        (a.getTitle() + "\n" + a.getBody()).getBytes(StandardCharsets.UTF_8));
+        }
+        return dir;
+    }
+
+    // four to eight lowercase letters
+    private static String word(Random random) {
+        char[] c = new char[4 + random.nextInt(5)];
+        for(int i = 0; i < c.length; i++)
+            c[i] = (char) ('a' + random.nextInt(26));
+        return new String(c);
+    }
+}
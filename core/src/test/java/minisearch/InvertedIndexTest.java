@@ -0,0 +1,84 @@
+/*
+ * InvertedIndexTest.java
+ *
+ * Ids of removed documents are handed out again, and a reused id carries a
+ * new serial number and none of the old document's postings.
+ */
+
+package minisearch;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class InvertedIndexTest {
+
+    private static final int BODY = InvertedIndex.BODY;
+
+    @Test
+    public void removedIdIsReused() {
+        InvertedIndex index = new InvertedIndex();
+        int a = index.add(new Article("A", "apple banana cherry"));
+        int b = index.add(new Article("B", "banana cherry damson"));
+        long serialA = index.doc(a).serial;
+        assertTrue(index.remove("A"));
+        assertNull(index.doc(a));
+        assertEquals(-1, index.docId("A"));
+
+        int c = index.add(new Article("C", "elder fig grape"));
+        assertEquals(a, c);
+        assertEquals(2, index.maxDocId());
+        assertTrue(index.doc(c).serial > serialA);
+        assertTrue(index.doc(c).serial > index.doc(b).serial);
+        assertEquals("C", index.doc(c).article.getTitle());
+    }
+
+    @Test
+    public void reusedIdHasOnlyItsOwnPostings() {
+        InvertedIndex index = new InvertedIndex();
+        int a = index.add(new Article("A", "apple banana"));
+        index.add(new Article("B", "banana cherry"));
+        index.remove("A");
+        int c = index.add(new Article("C", "cherry damson"));
+        assertEquals(a, c);
+
+        assertNull(index.postings(BODY, "apple"));
+        assertFalse(contains(index.postings(BODY, "banana"), c));
+        InvertedIndex.Postings cherry = index.postings(BODY, "cherry");
+        assertEquals(2, cherry.size());
+        assertTrue(cherry.doc(0) < cherry.doc(1));       // still in document order
+        assertTrue(contains(cherry, c));
+    }
+
+    @Test
+    public void batchesFillFreeIdsFirst() {
+        InvertedIndex index = new InvertedIndex();
+        for(int i = 0; i < 5; i++)
+            index.add(new Article("T" + i, "word" + (char) ('a' + i)));
+        index.removeAll(Arrays.asList("T1", "T3"));
+        assertEquals(3, index.size());
+
+        int[] ids = index.addAll(Arrays.asList(new Article("U", "worda"), new Article("V", "wordb"),
+                                                         new Article("W", "wordc")));
+        assertArrayEquals(new int[] { 1, 3, 5 }, ids);
+        assertEquals(6, index.size());
+        assertEquals(6, index.maxDocId());
+    }
+
+    @Test
+    public void trailingIdsAreGivenBack() {
+        InvertedIndex index = new InvertedIndex();
+        index.add(new Article("A", "apple"));
+        index.add(new Article("B", "banana"));
+        index.remove("B");
+        assertEquals(1, index.add(new Article("C", "cherry")));
+        assertEquals(2, index.maxDocId());
+    }
+
+    private static boolean contains(InvertedIndex.Postings p, int id) {
+        int i = p.find(id);
+        return i < p.size() && p.doc(i) == id;
+    }
+}
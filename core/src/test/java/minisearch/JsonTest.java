@@ -0,0 +1,68 @@
+/*
+ * JsonTest.java
+ *
+ * Json.parse on the request bodies SearchServer accepts, malformed input,
+ * and quote() read back by parse().
+ */
+
+package minisearch;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JsonTest {
+
+    @Test
+    public void parsesNestedValues() {
+        Map<String, Object> m = Json.parseObject(
+            "{ \"ops\": [ {\"op\": \"add\", \"title\": \"A\", \"body\": \"x\"}, {\"op\": \"delete\", \"title\": \"B\"} ],\n" +
+            "  \"k\": 10, \"score\": -1.5e-3, \"dry\": false, \"strict\": true, \"note\": null }");
+        assertEquals(Arrays.asList("ops", "k", "score", "dry", "strict", "note"), new ArrayList<String>(m.keySet()));
+        List<?> ops = (List<?>) m.get("ops");
+        assertEquals(2, ops.size());
+        assertEquals("add", ((Map<?, ?>) ops.get(0)).get("op"));
+        assertEquals("B", ((Map<?, ?>) ops.get(1)).get("title"));
+        assertEquals(10.0, m.get("k"));
+        assertEquals(-1.5e-3, m.get("score"));
+        assertEquals(Boolean.FALSE, m.get("dry"));
+        assertEquals(Boolean.TRUE, m.get("strict"));
+        assertTrue(m.containsKey("note"));
+        assertNull(m.get("note"));
+    }
+
+    @Test
+    public void parsesEmptyContainersAndEscapes() {
+        assertEquals(new LinkedHashMap<String, Object>(), Json.parse("{}"));
+        assertEquals(new ArrayList<Object>(), Json.parse(" [ ] "));
+        assertEquals("a\"b\\c/d\b\f\n\r\t\u00e9\u20ac", Json.parse("\"a\\\"b\\\\c\\/d\\b\\f\\n\\r\\t\\u00e9\\u20AC\""));
+    }
+
+    @Test
+    public void quoteIsReadBack() {
+        String s = "line one\nline \"two\"\t\\ \u0001 caf\u00e9";
+        assertEquals(s, Json.parse(Json.quote(s)));
+        assertEquals("null", Json.number(Double.NaN));
+        assertEquals(0.25, Json.parse(Json.number(0.25)));
+    }
+
+    @Test
+    public void rejectsMalformedInput() {
+        String[] bad = { "", "{", "{\"a\" 1}", "{\"a\": 1,}", "[1 2]", "\"open", "\"\\x\"", "\"\\u12\"",
+                         "tru", "nul", "-", "1.2.3", "{} []", "{a: 1}", "'a'" };
+        for(String s : bad) {
+            try {
+                Json.parse(s);
+                fail("parsed " + s);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseObjectWantsAnObject() {
+        Json.parseObject("[1, 2]");
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * MutationLogTest.java
+ *
+ * recover() replays the log over the article folder or the snapshot,
+ * drops a torn tail, and forgets the segments a snapshot covers.
+ */
+
+package minisearch;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class MutationLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String db;
+    private File wal;
+
+    @Before
+    public void setUp() throws IOException {
+        db = Corpus.write(folder.newFolder("articles"), Corpus.generate(5, 1)).getPath();
+        wal = new File(folder.getRoot(), "wal");
+    }
+
+    @Test
+    public void replaysChangesOverTheArticles() throws IOException {
+        MutationLog log = new MutationLog(wal, 0);
+        assertEquals(5, log.recover(db).size());
+        log.start(null);
+        log.append(MutationLog.ADD, "New", "a new body\n");
+        log.append(MutationLog.DELETE, "Article 0", null);
+        log.await(log.append(MutationLog.ADD, "Article 0", "its second body\n"));
+        log.append(MutationLog.DELETE, "Article 1", null);
+        log.close();                                      // writes out what is queued
+
+        ArticleTable T = new MutationLog(wal, 0).recover(db);
+        assertEquals(5, T.size());
+        assertEquals("a new body\n", T.lookup("New").getBody());
+        assertEquals("its second body\n", T.lookup("Article 0").getBody());
+        assertNull(T.lookup("Article 1"));
+        assertNotNull(T.lookup("Article 4"));
+    }
+
+    @Test
+    public void dropsATornTail() throws IOException {
+        MutationLog log = new MutationLog(wal, 0);
+        log.recover(db);
+        log.start(null);
+        log.await(log.append(MutationLog.ADD, "New", "a new body\n"));
+        log.close();
+        File segment = segments().get(0);
+        long good = segment.length();
+        try (FileOutputStream out = new FileOutputStream(segment, true)) {
+            out.write(new byte[] { 0, 0, 0, 40, 1, 2, 3 });   // a record cut short by a crash
+        }
+
+        log = new MutationLog(wal, 0);
+        ArticleTable T = log.recover(db);
+        assertEquals(6, T.size());
+        assertNotNull(T.lookup("New"));
+        assertEquals(good, segment.length());
+
+        // and the log goes on after it
+        log.start(null);
+        log.await(log.append(MutationLog.DELETE, "New", null));
+        log.close();
+        assertNull(new MutationLog(wal, 0).recover(db).lookup("New"));
+    }
+
+    @Test
+    public void snapshotReplacesArticlesAndOldSegments() throws IOException {
+        MutationLog log = new MutationLog(wal, 0);
+        ArticleTable T = log.recover(db);
+        log.start(null);
+        T.delete("Article 2");
+        log.await(log.append(MutationLog.DELETE, "Article 2", null));
+        int first = log.rotate();
+        log.writeSnapshot(T.snapshot(), first);
+        log.await(log.append(MutationLog.ADD, "After", "written after the snapshot\n"));
+        log.close();
+
+        assertEquals(1, segments().size());
+        assertTrue(new File(wal, "snapshot.bin").exists());
+        ArticleTable R = new MutationLog(wal, 0).recover(db);
+        assertEquals(5, R.size());
+        assertNull(R.lookup("Article 2"));             // the folder still has it; the snapshot does not
+        assertNotNull(R.lookup("After"));
+    }
+
+    @Test
+    public void emptyLogGivesTheArticles() throws IOException {
+        ArticleTable T = new MutationLog(wal, 0).recover(db);
+        assertEquals(5, T.size());
+        assertTrue(wal.isDirectory());
+    }
+
+    private List<File> segments() {
+        File[] fs = wal.listFiles();
+        List<File> segments = new ArrayList<File>();
+        for(File f : fs) {
+            if(f.getName().startsWith("wal-"))
+                segments.add(f);
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * NearDuplicateDetectorTest.java
+ *
+ * Flags follow removals: when the article copies were flagged against
+ * goes, they are re-pointed to one copy that stands for the rest, and are
+ * no longer flagged once they have nothing left to duplicate.
+ */
+
+package minisearch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NearDuplicateDetectorTest {
+
+    private static final String BODY = "the quick brown fox jumps over the lazy dog again and again every single morning";
+
+    @Test
+    public void flagsCopies() {
+        NearDuplicateDetector D = detector("X", "Y", "Z");
+        assertNull(D.duplicateOf("X"));
+        assertEquals("X", D.duplicateOf("Y"));
+        assertEquals("X", D.duplicateOf("Z"));
+        assertEquals(2, D.flagged());
+        assertTrue(D.isDuplicate("Y"));
+        assertFalse(D.isDuplicate("X"));
+        assertNull(D.findDuplicate(new Article("Other", "a completely different body with enough words to be judged at all")));
+    }
+
+    @Test
+    public void removingTheOriginalRepointsToOneCopy() {
+        NearDuplicateDetector D = detector("X", "Y", "Z", "W");
+        D.remove("X");
+        assertNull(D.duplicateOf("Y"));                  // the first copy now stands for the others
+        assertEquals("Y", D.duplicateOf("Z"));
+        assertEquals("Y", D.duplicateOf("W"));           // not W -> Z -> Y
+        assertEquals(2, D.flagged());
+    }
+
+    @Test
+    public void removingACopyKeepsTheOthers() {
+        NearDuplicateDetector D = detector("X", "Y", "Z");
+        D.remove("Y");
+        assertEquals("X", D.duplicateOf("Z"));
+        assertEquals(1, D.flagged());
+        assertEquals("X", D.findDuplicate(new Article("V", BODY)));
+    }
+
+    @Test
+    public void lastCopyIsUnflagged() {
+        NearDuplicateDetector D = detector("X", "Y");
+        D.remove("X");
+        assertNull(D.duplicateOf("Y"));
+        assertEquals(0, D.flagged());
+        assertFalse(D.anyDuplicates());
+        D.remove("Y");
+        assertEquals(0, D.size());
+    }
+
+    @Test
+    public void removalUnderEngineShowsTheCopy() {
+        SearchEngine E = new SearchEngine(new ArticleTable());
+        E.insert(new Article("X", BODY));
+        E.insert(new Article("Y", BODY));
+        assertEquals("X", E.duplicateOf("Y"));
+        assertEquals(1, E.search("fox", 10).size());
+        assertEquals("X", E.search("fox", 10).get(0).getArticle().getTitle());
+        E.delete("X");
+        assertNull(E.duplicateOf("Y"));
+        assertEquals("Y", E.search("fox", 10).get(0).getArticle().getTitle());
+    }
+
+    // a detector holding articles with these titles and the same body, added in order
+    private static NearDuplicateDetector detector(String... titles) {
+        NearDuplicateDetector D = new NearDuplicateDetector();
+        for(String t : titles) {
+            Article a = new Article(t, BODY);
+            D.add(a, D.findDuplicate(a));
+        }
+        return D;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * SearchCursorTest.java
+ *
+ * A cursor survives encode() and decode(), garbage is refused, and paging
+ * with getNext() walks the same hits as one large page, in order and
+ * without repeats, even while articles are added and removed.
+ */
+
+package minisearch;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SearchCursorTest {
+
+    @Test
+    public void roundTrip() {
+        SearchCursor c = new SearchCursor(0.123456789, 4711, 1L << 40, -17);
+        SearchCursor d = SearchCursor.decode(c.encode());
+        assertEquals(c.score, d.score, 0);
+        assertEquals(c.doc, d.doc);
+        assertEquals(c.added, d.added);
+        assertEquals(c.query, d.query);
+        assertTrue(c.encode().matches("[A-Za-z0-9_-]+"));      // URL-safe, no padding
+    }
+
+    @Test
+    public void ordersByScoreThenDocument() {
+        SearchCursor c = new SearchCursor(0.5, 10, 1, 0);
+        assertTrue(c.before(0.4, 3));
+        assertTrue(c.before(0.5, 11));
+        assertFalse(c.before(0.5, 10));
+        assertFalse(c.before(0.5, 9));
+        assertFalse(c.before(0.6, 99));
+    }
+
+    @Test
+    public void refusesGarbage() {
+        String good = new SearchCursor(1, 2, 3, 4).encode();
+        String[] bad = { "", "!!!!", good.substring(1), good + "AA", "B" + good.substring(1) };
+        for(String s : bad) {
+            try {
+                SearchCursor.decode(s);
+                fail("decoded " + s);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void pagesWalkAllHitsOnce() {
+        SearchEngine E = engine();
+        String phrase = phrase(E);
+        SearchEngine.Page all = E.page(phrase, 0, 10000);
+        assertNull(all.getNext());
+        assertTrue(all.size() > 25);
+
+        List<String> paged = new ArrayList<String>();
+        SearchEngine.Page p = E.page(phrase, 0, 7);
+        while(true) {
+            for(SearchEngine.Hit h : p)
+                paged.add(h.getArticle().getTitle());
+            if(p.getNext() == null)
+                break;
+            p = E.page(phrase, p.getNext(), 7);
+        }
+        assertEquals(titles(all), paged);
+    }
+
+    @Test
+    public void laterChangesDoNotShiftPages() {
+        SearchEngine E = engine();
+        String phrase = phrase(E);
+        List<String> expected = titles(E.page(phrase, 0, 10000));
+
+        SearchEngine.Page first = E.page(phrase, 0, 10);
+        // a new article matching the phrase best, in the id of a removed one
+        String gone = expected.get(expected.size() - 1);
+        E.delete(gone);
+        E.insert(new Article("Newcomer", phrase + " " + phrase));
+        List<String> paged = titles(first);
+        for(SearchEngine.Page p = E.page(phrase, first.getNext(), 10); ; p = E.page(phrase, p.getNext(), 10)) {
+            paged.addAll(titles(p));
+            if(p.getNext() == null)
+                break;
+        }
+        expected.remove(gone);
+        assertEquals(expected, paged);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesCursorOfAnotherSearch() {
+        SearchEngine E = engine();
+        String phrase = phrase(E);
+        E.page(phrase + " " + phrase, E.page(phrase, 0, 1).getNext(), 1);
+    }
+
+    /*
+     * Helper Methods
+     */
+
+    private static SearchEngine engine() {
+        ArticleTable T = new ArticleTable();
+        for(Article a : Corpus.generate(300, 3))
+            T.insert(a);
+        return new SearchEngine(T);
+    }
+
+    // the first body word of some article, found in many others
+    private static String phrase(SearchEngine E) {
+        String best = null;
+        int most = 0;
+        for(Article a : E.getTable().snapshot()) {
+            String w = a.getBody().split("\\s+")[0];
+            int n = E.page(w, 0, 1).getTotal();
+            if(n > most) {
+                best = w;
+                most = n;
+            }
+        }
+        return best;
+    }
+
+    private static List<String> titles(List<SearchEngine.Hit> hits) {
+        List<String> titles = new ArrayList<String>();
+        for(SearchEngine.Hit h : hits)
+            titles.add(h.getArticle().getTitle());
+        return titles;
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * StressTest.java
+ *
+ * Runs searches and changes against one SearchEngine at the same time, to
+ * check that nothing is lost or corrupted along the way under mixed load,
+ * and prints throughput and latency while at it. Runs with the other
+ * tests for about a second over a made-up corpus (see Corpus); for a
+ * longer run before trusting a change to the table, the index or their
+ * locking, set -Dminisearch.stress.seconds:
+ *
+ *     mvn test -Dtest=StressTest -Dminisearch.stress.seconds=60 -Dsurefire.failIfNoSpecifiedTests=false
+ *
+ * Readers search random one- to three-word phrases taken from the corpus.
+ * Writers insert, delete and replace (with a changed body) articles of
+ * the corpus. Each writer owns its own share of the titles, so it knows
+ * exactly which of them should be present and with which body, without
+ * coordinating with the others. While running it checks:
+ *
+ *   - every search: hits ordered by score, scores in (0, 1], no title twice
+ *   - every change: it succeeds exactly when it should, and the writer
+ *     sees its own change at once (lookup right after)
+ *
+ * and once every thread has stopped:
+ *
+ *   - no lost or stray articles: the table holds exactly what the writers
+ *     expect, and the index holds exactly the table's articles
+ *   - for a few phrases (one per second run, at least three),
+ *     searchExact() agrees with a brute-force scan of every article with
+ *     SearchEngine.cosineSimilarity (the engine is run with a title boost
+ *     of 0 and near-duplicate detection off, so its scores are exactly
+ *     that cosine)
+ *   - changes are also written to a MutationLog, compacted often, and
+ *     recovering it gives the same articles
+ *
+ * Prints operations per second and latency percentiles per kind of
+ * operation, and fails with the first checks that did not hold.
+ */
+
+package minisearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertTrue;
+
+public class StressTest {
+
+    private static final double EPSILON = 1e-9;
+    private static final double SECONDS = Double.parseDouble(System.getProperty("minisearch.stress.seconds", "1"));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private List<Article> corpus;
+    private String dbPath;
+    private SearchEngine E;
+    private MutationLog log;
+    private List<String> phrases;
+    private final int k = 10;
+    private final AtomicBoolean running = new AtomicBoolean(true);
+    private final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+
+    // an engine over the corpus, near-duplicate detection off and a title
+    // boost of 0 so its scores are exactly cosineSimilarity, logging its
+    // changes to a MutationLog that compacts every 64 KB
+    @Before
+    public void setUp() throws IOException {
+        corpus = Corpus.generate(500, 42);
+        dbPath = Corpus.write(folder.newFolder("articles"), corpus).getPath();
+        log = new MutationLog(folder.newFolder("wal"), 64 << 10);
+        log.recover(dbPath);
+        E = new SearchEngine(new ArticleTable());
+        E.setDedupPolicy(NearDuplicateDetector.Policy.OFF);
+        E.setBoosts(1, 0);
+        for(Article a : corpus)
+            E.insert(a);
+        E.setLog(log);
+        phrases = phrases(corpus, 1000, new Random(42));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        log.close();
+    }
+
+    @Test
+    public void readersAndWriters() throws Exception {
+        run(corpus, 4, 2, SECONDS, Math.max(3, (int) SECONDS), 42);
+        checkRecovery(log, dbPath);
+        assertTrue(failures.size() + " checks failed: " + failures, failures.isEmpty());
+    }
+
+    // a thread's latencies (nanoseconds) for one kind of operation
+    private static class Latencies {
+        private long[] nanos = new long[1024];
+        private int n;
+
+        void add(long t) {
+            if(n == nanos.length)
+                nanos = Arrays.copyOf(nanos, n * 2);
+            nanos[n++] = t;
+        }
+
+        static long[] merge(List<Latencies> ls) {
+            int total = 0;
+            for(Latencies l : ls)
+                total += l.n;
+            long[] all = new long[total];
+            int i = 0;
+            for(Latencies l : ls) {
+                System.arraycopy(l.nanos, 0, all, i, l.n);
+                i += l.n;
+            }
+            Arrays.sort(all);
+            return all;
+        }
+    }
+
+    // searches random phrases until stopped, checking each result
+    private class Reader implements Runnable {
+        final Latencies searches = new Latencies();
+        final Random random;
+
+        Reader(long seed) {
+            random = new Random(seed);
+        }
+
+        public void run() {
+            while(running.get()) {
+                String q = phrases.get(random.nextInt(phrases.size()));
+                long t = System.nanoTime();
+                List<SearchEngine.Hit> hits = E.search(q, k);
+                searches.add(System.nanoTime() - t);
+                check(q, hits);
+            }
+        }
+
+        private void check(String q, List<SearchEngine.Hit> hits) {
+            Set<String> titles = new HashSet<String>();
+            for(int i = 0; i < hits.size(); i++) {
+                SearchEngine.Hit h = hits.get(i);
+                if(h.getArticle() == null)
+                    fail("search \"" + q + "\": hit " + i + " has no article");
+                else if(!titles.add(h.getArticle().getTitle()))
+                    fail("search \"" + q + "\": " + h.getArticle().getTitle() + " returned twice");
+                if(!(h.getScore() > 0 && h.getScore() <= 1 + EPSILON))
+                    fail("search \"" + q + "\": score " + h.getScore() + " out of range");
+                if(i > 0 && h.getScore() > hits.get(i - 1).getScore())
+                    fail("search \"" + q + "\": hits out of order at " + i);
+            }
+        }
+    }
+
+    // inserts, deletes and replaces its own titles until stopped
+    private class Writer implements Runnable {
+        final Latencies inserts = new Latencies(), deletes = new Latencies(), replaces = new Latencies();
+        final Map<String, Article> expected = new HashMap<String, Article>();   // title -> article, null if absent
+        final Map<String, String> bodies = new HashMap<String, String>();      // title -> body in the corpus
+        final List<String> titles = new ArrayList<String>();
+        final Random random;
+        int revision;
+
+        Writer(long seed) {
+            random = new Random(seed);
+        }
+
+        void own(Article a) {
+            titles.add(a.getTitle());
+            bodies.put(a.getTitle(), a.getBody());
+            expected.put(a.getTitle(), a);
+        }
+
+        public void run() {
+            while(running.get() && !titles.isEmpty()) {
+                String title = titles.get(random.nextInt(titles.size()));
+                Article current = expected.get(title);
+                if(current == null) {
+                    Article a = revise(title);
+                    long t = System.nanoTime();
+                    boolean ok = E.insert(a);
+                    inserts.add(System.nanoTime() - t);
+                    expect(ok, "insert of absent " + title + " refused");
+                    expected.put(title, a);
+                } else if(random.nextBoolean()) {
+                    long t = System.nanoTime();
+                    boolean ok = E.delete(title);
+                    deletes.add(System.nanoTime() - t);
+                    expect(ok, "delete of present " + title + " refused");
+                    expected.put(title, null);
+                } else {
+                    Article a = revise(title);
+                    long t = System.nanoTime();
+                    boolean ok = E.replace(title, a);
+                    replaces.add(System.nanoTime() - t);
+                    expect(ok, "replace of " + title + " refused");
+                    expected.put(title, a);
+                }
+                if(E.lookup(title) != expected.get(title))
+                    fail("writer does not see its own change to " + title);
+            }
+        }
+
+        // a new article with this title, whose body differs from all before it
+        private Article revise(String title) {
+            return new Article(title, bodies.get(title) + "\nrevision " + (++revision) + " by " +
+                               Thread.currentThread().getName());
+        }
+
+        private void expect(boolean ok, String failure) {
+            if(!ok)
+                fail(failure);
+        }
+    }
+
+    private void fail(String message) {
+        if(failures.size() < 100)
+            failures.add(message);
+    }
+
+    // run readers and writers for the given time, then check the end state
+    private boolean run(List<Article> corpus, int readers, int writers, double seconds, int oracle, long seed)
+            throws InterruptedException {
+        List<Reader> rs = new ArrayList<Reader>();
+        List<Writer> ws = new ArrayList<Writer>();
+        for(int i = 0; i < readers; i++)
+            rs.add(new Reader(seed + i));
+        for(int i = 0; i < writers; i++)
+            ws.add(new Writer(seed + 1000 + i));
+        for(int i = 0; i < corpus.size() && writers > 0; i++)
+            ws.get(i % writers).own(corpus.get(i));
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for(int i = 0; i < rs.size(); i++)
+            threads.add(new Thread(rs.get(i), "reader-" + i));
+        for(int i = 0; i < ws.size(); i++)
+            threads.add(new Thread(ws.get(i), "writer-" + i));
+        long start = System.nanoTime();
+        for(Thread t : threads)
+            t.start();
+        Thread.sleep((long) (seconds * 1000));
+        running.set(false);
+        for(Thread t : threads)
+            t.join();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        List<Latencies> searches = new ArrayList<Latencies>();
+        List<Latencies> inserts = new ArrayList<Latencies>(), deletes = new ArrayList<Latencies>(),
+                        replaces = new ArrayList<Latencies>();
+        for(Reader r : rs)
+            searches.add(r.searches);
+        for(Writer w : ws) {
+            inserts.add(w.inserts);
+            deletes.add(w.deletes);
+            replaces.add(w.replaces);
+        }
+        System.out.println(String.format("%d readers, %d writers, %.1f s", readers, writers, elapsed));
+        System.out.println(String.format("%-8s %10s %10s %10s %10s %10s %10s", "", "ops", "ops/s",
+                                         "p50", "p95", "p99", "max"));
+        summary("search", Latencies.merge(searches), elapsed);
+        summary("insert", Latencies.merge(inserts), elapsed);
+        summary("delete", Latencies.merge(deletes), elapsed);
+        summary("replace", Latencies.merge(replaces), elapsed);
+
+        Map<String, Article> expected = new HashMap<String, Article>();
+        for(Writer w : ws)
+            expected.putAll(w.expected);
+        if(writers == 0) {
+            for(Article a : corpus)
+                expected.put(a.getTitle(), a);
+        }
+        checkContents(expected);
+        checkOracle(oracle, new Random(seed));
+        return failures.isEmpty();
+    }
+
+    // the table holds exactly the expected articles, the index exactly the table's
+    private void checkContents(Map<String, Article> expected) {
+        int present = 0;
+        for(Map.Entry<String, Article> e : expected.entrySet()) {
+            Article a = E.lookup(e.getKey());
+            if(a != e.getValue())
+                fail("lost change: " + e.getKey() + " is " + (a == null ? "missing" : "not the expected version"));
+            if(e.getValue() != null)
+                present++;
+        }
+        ArticleTable T = E.getTable();
+        if(T.size() != present)
+            fail("table holds " + T.size() + " articles, expected " + present);
+        InvertedIndex index = E.getIndex();
+        if(index.size() != T.size())
+            fail("index holds " + index.size() + " documents, table " + T.size());
+        for(Article a : T.snapshot()) {
+            int id = index.docId(a.getTitle());
+            if(id < 0 || index.doc(id) == null || index.doc(id).article != a)
+                fail("index does not hold " + a.getTitle() + " as in the table");
+        }
+        System.out.println("contents: " + T.size() + " articles, table and index agree with the writers: " +
+                           (failures.isEmpty() ? "ok" : "FAILED"));
+    }
+
+    // searchExact agrees with cosineSimilarity over every article
+    private void checkOracle(int n, Random random) {
+        int before = failures.size();
+        List<Article> all = new ArrayList<Article>();
+        for(Article a : E.getTable().snapshot())
+            all.add(a);
+        for(int i = 0; i < n; i++) {
+            String q = phrases.get(random.nextInt(phrases.size()));
+            final Map<String, Double> truth = new HashMap<String, Double>();
+            List<String> ranked = new ArrayList<String>();
+            for(Article a : all) {
+                double s = SearchEngine.cosineSimilarity(q, a.getBody());
+                if(s > 0) {
+                    truth.put(a.getTitle(), s);
+                    ranked.add(a.getTitle());
+                }
+            }
+            Collections.sort(ranked, new Comparator<String>() {
+                public int compare(String a, String b) {
+                    return Double.compare(truth.get(b), truth.get(a));
+                }
+            });
+
+            List<SearchEngine.Hit> hits = E.searchExact(q, k);
+            if(hits.size() != Math.min(k, ranked.size()))
+                fail("oracle \"" + q + "\": " + hits.size() + " hits, expected " + Math.min(k, ranked.size()));
+            for(int j = 0; j < hits.size() && j < ranked.size(); j++) {
+                SearchEngine.Hit h = hits.get(j);
+                Double s = truth.get(h.getArticle().getTitle());
+                if(s == null || Math.abs(s - h.getScore()) > EPSILON)
+                    fail("oracle \"" + q + "\": " + h.getArticle().getTitle() + " scored " + h.getScore() +
+                         ", cosine is " + s);
+                if(Math.abs(truth.get(ranked.get(j)) - h.getScore()) > EPSILON)
+                    fail("oracle \"" + q + "\": hit " + j + " scored " + h.getScore() + ", expected " +
+                         truth.get(ranked.get(j)));
+            }
+        }
+        System.out.println("oracle: " + n + " phrases checked against a scan of " + all.size() + " articles: " +
+                           (failures.size() == before ? "ok" : "FAILED"));
+    }
+
+    // the articles recovered from log agree with the engine's
+    private void checkRecovery(MutationLog log, String dbPath) throws IOException {
+        int before = failures.size();
+        log.close();
+        ArticleTable recovered = new MutationLog(log.getDirectory(), 0).recover(dbPath);
+        if(recovered.size() != E.getTable().size())
+            fail("recovered " + recovered.size() + " articles, engine holds " + E.getTable().size());
+        for(Article a : E.getTable().snapshot()) {
+            Article b = recovered.lookup(a.getTitle());
+            if(b == null || !b.getBody().equals(a.getBody()))
+                fail("recovered " + a.getTitle() + (b == null ? " missing" : " with another body"));
+        }
+        System.out.println("recovery: " + recovered.size() + " articles from " + log.getDirectory() + ": " +
+                           (failures.size() == before ? "ok" : "FAILED"));
+    }
+
+    /*
+     * Helper Methods
+     */
+
+    private static void summary(String op, long[] sorted, double seconds) {
+        System.out.println(String.format("%-8s %10d %10.0f %10s %10s %10s %10s", op, sorted.length,
+                                         sorted.length / seconds,
+                                         millis(BatchSearch.percentile(sorted, 50)),
+                                         millis(BatchSearch.percentile(sorted, 95)),
+                                         millis(BatchSearch.percentile(sorted, 99)),
+                                         millis(sorted.length == 0 ? 0 : sorted[sorted.length - 1])));
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f ms", nanos / 1e6);
+    }
+
+    // one- to three-word phrases from random places in random articles
+    private static List<String> phrases(List<Article> corpus, int n, Random random) {
+        List<String> phrases = new ArrayList<String>();
+        while(phrases.size() < n) {
+            String[] words = corpus.get(random.nextInt(corpus.size())).getBody().split("\\s+");
+            if(words.length < 4)
+                continue;
+            int i = random.nextInt(words.length - 3);
+            int len = 1 + random.nextInt(3);
+            StringBuilder sb = new StringBuilder(words[i]);
+            for(int j = 1; j < len; j++)
+                sb.append(' ').append(words[i + j]);
+            phrases.add(sb.toString());
+        }
+        return phrases;
+    }
+}